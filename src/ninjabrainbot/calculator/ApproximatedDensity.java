@@ -1,40 +1,289 @@
 package ninjabrainbot.calculator;
 
-import java.util.HashMap;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.Random;
 
+/**
+ * Radial stronghold density after biome snapping, approximated by convolving the density before snapping
+ * with a radial filter.
+ *
+ * The density is tabulated on a coarse (1 chunk) and a fine (1/4 chunk) radial grid, and can be looked up
+ * with different trade-offs between speed and accuracy, see Tier. The tables are generated offline with
+ * main(...) and shipped as a resource, so that they do not have to be calculated at startup. If the resource
+ * is missing or was generated for different stronghold constants the tables are calculated instead.
+ */
 public class ApproximatedDensity {
 	
-	private static final int deltaR = 1; // discretisation step size (in chunks)
-	private static double[] density; // approximated density
-	private static double[] cumulative_r_space; // approximated density
+	public static final String RESOURCE = "/resources/approximated_density.bin";
 	
+	private static final int MAGIC = 0x4e424144; // "NBAD"
+	private static final int VERSION = 2;
+	
+	// Number of table entries per chunk
+	private static final int COARSE_SUBDIVISIONS = 1;
+	private static final int FINE_SUBDIVISIONS = 4;
+	
+	/**
+	 * Ways of looking up the density. The errors are those of ApproximatedPrior using the tier, compared to
+	 * the exact prior (see ApproximatedPrior.evaluateError()), where the average non-zero chunk weight is
+	 * 3.2e-5. The largest relative errors are at the edges of the rings, where the exact weights are tiny. The
+	 * times are per density lookup at random positions. Run main(...) with --evaluate to measure them again.
+	 */
+	public enum Tier {
+		/**
+		 * Linear interpolation on the coarse table. Root-mean-square error 4.33e-7, largest relative error
+		 * 495, 11 ns.
+		 */
+		LINEAR(COARSE_SUBDIVISIONS, false, 4.33e-7, 11),
+		/**
+		 * Monotone cubic Hermite interpolation on the coarse table. Root-mean-square error 4.28e-7, largest
+		 * relative error 470, 27 ns.
+		 */
+		CUBIC(COARSE_SUBDIVISIONS, true, 4.28e-7, 27),
+		/**
+		 * Linear interpolation on the fine table. Root-mean-square error 3.40e-7, largest relative error
+		 * 415, 11 ns. The fine tables take up 98 kB and are loaded the first time they are used.
+		 */
+		FINE(FINE_SUBDIVISIONS, false, 3.40e-7, 11);
+		
+		private final int subdivisions;
+		private final boolean cubic;
+		// Measured as described above
+		public final double rmsError;
+		public final double nanosPerLookup;
+		
+		Tier(int subdivisions, boolean cubic, double rmsError, double nanosPerLookup) {
+			this.subdivisions = subdivisions;
+			this.cubic = cubic;
+			this.rmsError = rmsError;
+			this.nanosPerLookup = nanosPerLookup;
+		}
+		
+		/**
+		 * Returns the most accurate tier whose lookups take at most the given time, or the fastest tier if
+		 * none of them are that fast.
+		 */
+		public static Tier mostAccurateWithin(double nanosPerLookup) {
+			Tier best = null;
+			Tier fastest = null;
+			for (Tier tier : values()) {
+				if (tier.nanosPerLookup <= nanosPerLookup && (best == null || tier.rmsError < best.rmsError))
+					best = tier;
+				if (fastest == null || tier.nanosPerLookup < fastest.nanosPerLookup)
+					fastest = tier;
+			}
+			return best != null ? best : fastest;
+		}
+		
+		/**
+		 * Density (pdf) of strongholds at chunk coords (cx, cz).
+		 */
+		public double density(double cx, double cz) {
+			double k = Math.sqrt(cx * cx + cz * cz) * subdivisions;
+			double[] density = subdivisions == COARSE_SUBDIVISIONS ? CoarseTables.density : FineTables.density;
+			if (cubic)
+				return interpolateMonotoneCubic(density, k, 0);
+			return interpolateLinear(density, k, 0);
+		}
+		
+		/**
+		 * Probability that the stronghold is at most r chunks from the origin.
+		 */
+		public double cumulativePolar(double r) {
+			if (r < 0)
+				return 0;
+			double k = r * subdivisions;
+			double[] cumulative = subdivisions == COARSE_SUBDIVISIONS ? CoarseTables.cumulative_r_space : FineTables.cumulative_r_space;
+			double outside = cumulative[cumulative.length - 1];
+			if (cubic)
+				return interpolateMonotoneCubic(cumulative, k, outside);
+			return interpolateLinear(cumulative, k, outside);
+		}
+	}
+	
+	/**
+	 * The tier used by density(...), cumulativePolar(...) and the priors unless the calculator is given a
+	 * latency target (see Calculator.densityLookupTargetNanos). Linear interpolation on the coarse table gives
+	 * the same results as before the tiers were added.
+	 */
+	public static final Tier DEFAULT_TIER = Tier.LINEAR;
+	
+	/**
+	 * The tables are loaded when the holder class is first used, which the JVM guarantees to happen exactly
+	 * once, so lookups do not have to check if they have been initialized. The fine tables are only loaded if
+	 * they are used.
+	 */
+	private static class CoarseTables {
+		static final double[] density;
+		static final double[] cumulative_r_space;
+		
+		static {
+			double[][] tables = loadOrCalculate(COARSE_SUBDIVISIONS);
+			density = tables[0];
+			cumulative_r_space = tables[1];
+		}
+		
+		static void init() {
+		}
+	}
+	
+	private static class FineTables {
+		static final double[] density;
+		static final double[] cumulative_r_space;
+		
+		static {
+			double[][] tables = loadOrCalculate(FINE_SUBDIVISIONS);
+			density = tables[0];
+			cumulative_r_space = tables[1];
+		}
+	}
+	
+	/**
+	 * Loads the coarse tables, so that the first lookup is not delayed.
+	 */
 	public static void init() {
-		if (density != null)
-			return;
-		density = new double[StrongholdConstants.maxChunk / deltaR + 5];
+		CoarseTables.init();
+	}
+	
+	/**
+	 * Density (pdf) of strongholds at chunk coords (cx, cz), using the default tier.
+	 */
+	public static double density(double cx, double cz) {
+		return DEFAULT_TIER.density(cx, cz);
+	}
+	
+	/**
+	 * Probability that the stronghold is at most r chunks from the origin, using the default tier.
+	 */
+	public static double cumulativePolar(double r) {
+		return DEFAULT_TIER.cumulativePolar(r);
+	}
+	
+	private static double interpolateLinear(double[] table, double k, double outside) {
+		double t = k - (int) k;
+		int i0 = (int) k;
+		int i1 = (int) k + 1;
+		return i1 < table.length ? (1.0 - t) * table[i0]  + t * table[i1] : outside;
+	}
+	
+	/**
+	 * Cubic Hermite interpolation, with tangents from central differences that are limited so that the
+	 * interpolation is monotone between table entries (Fritsch-Carlson). Unlike Catmull-Rom splines it does
+	 * not overshoot, so the density stays non-negative and cumulativePolar(...) never decreases.
+	 */
+	private static double interpolateMonotoneCubic(double[] table, double k, double outside) {
+		int i1 = (int) k;
+		int i2 = i1 + 1;
+		if (i2 >= table.length)
+			return outside;
+		double t = k - i1;
+		double p0 = table[i1 > 0 ? i1 - 1 : 0];
+		double p1 = table[i1];
+		double p2 = table[i2];
+		double p3 = table[i2 + 1 < table.length ? i2 + 1 : i2];
+		double d0 = p1 - p0;
+		double d1 = p2 - p1;
+		double d2 = p3 - p2;
+		double m1 = 0;
+		double m2 = 0;
+		if (d1 != 0) {
+			// Tangents are 0 at local extrema
+			if (d0 * d1 > 0)
+				m1 = 0.5 * (d0 + d1);
+			if (d1 * d2 > 0)
+				m2 = 0.5 * (d1 + d2);
+			double a = m1 / d1;
+			double b = m2 / d1;
+			if (a * a + b * b > 9) {
+				double tau = 3 / Math.sqrt(a * a + b * b);
+				m1 *= tau;
+				m2 *= tau;
+			}
+		}
+		double t2 = t * t;
+		double t3 = t2 * t;
+		return (2 * t3 - 3 * t2 + 1) * p1 + (t3 - 2 * t2 + t) * m1 + (-2 * t3 + 3 * t2) * p2 + (t3 - t2) * m2;
+	}
+	
+	private static int length(int subdivisions) {
+		return (StrongholdConstants.maxChunk + 5) * subdivisions;
+	}
+	
+	private static double[][] loadOrCalculate(int subdivisions) {
+		double[][] tables = load(subdivisions);
+		return tables != null ? tables : calculate(subdivisions);
+	}
+	
+	/**
+	 * Returns the density and cumulative_r_space tables with the given number of entries per chunk from the
+	 * resource, or null if they are not available. The resource contains the coarse tables followed by the fine
+	 * tables.
+	 */
+	private static double[][] load(int subdivisions) {
+		try (InputStream stream = ApproximatedDensity.class.getResourceAsStream(RESOURCE)) {
+			if (stream == null)
+				return null;
+			DataInputStream in = new DataInputStream(stream);
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Unsupported approximated density table.");
+			if (in.readInt() != COARSE_SUBDIVISIONS || in.readInt() != FINE_SUBDIVISIONS)
+				throw new IOException("Approximated density table has the wrong resolution.");
+			if (in.readInt() != StrongholdConstants.maxChunk || in.readInt() != StrongholdConstants.snappingRadius || in.readInt() != StrongholdConstants.distParam || in.readInt() != StrongholdConstants.numRings)
+				throw new IOException("Approximated density table was generated for different stronghold constants.");
+			if (subdivisions == FINE_SUBDIVISIONS)
+				in.readFully(new byte[2 * length(COARSE_SUBDIVISIONS) * Double.BYTES]); // skip the coarse tables
+			int length = length(subdivisions);
+			byte[] bytes = new byte[2 * length * Double.BYTES];
+			in.readFully(bytes);
+			DoubleBuffer buffer = ByteBuffer.wrap(bytes).asDoubleBuffer();
+			double[][] tables = new double[2][length];
+			buffer.get(tables[0]);
+			buffer.get(tables[1]);
+			return tables;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * Calculates the density and cumulative_r_space tables with the given number of entries per chunk.
+	 */
+	private static double[][] calculate(int subdivisions) {
+		double deltaR = 1.0 / subdivisions; // discretisation step size (in chunks)
+		int length = length(subdivisions);
+		double[] density = new double[length];
 		RingIterator ringIterator = new RingIterator();
 		for (Ring ring : ringIterator) {
-			int c0 = (int) ring.innerRadius;
-			int c1 = (int) ring.outerRadius;
-			for (int i = c0; i <= c1; i += deltaR) {
-				double rho = ring.numStrongholds / (2.0 * Math.PI * (ring.outerRadius - ring.innerRadius) * i);
+			int c0 = (int) ring.innerRadius * subdivisions;
+			int c1 = (int) ring.outerRadius * subdivisions;
+			for (int i = c0; i <= c1; i++) {
+				double rho = ring.numStrongholds / (2.0 * Math.PI * (ring.outerRadius - ring.innerRadius) * (i * deltaR));
 				if (i == c0 || i == c1)
 					rho *= 0.5;
-				density[i / deltaR] = rho;
+				density[i] = rho;
 			}
 		}
-		double[] filter = new double[(int) (Math.ceil(StrongholdConstants.snappingRadius / deltaR * Math.sqrt(2))) + 1];
+		double[] filter = new double[(int) (Math.ceil(StrongholdConstants.snappingRadius * subdivisions * Math.sqrt(2))) + 1];
 		double sum = 0;
-		HashMap<Integer, Integer> offsetWeights = Prior.getOffsetWeights();
+		int[] offsetKernel = Prior.getOffsetKernel();
 		for (int k = -StrongholdConstants.snappingRadius; k <= StrongholdConstants.snappingRadius; k++) {
-			int xOffsetWeight = offsetWeights.get(k);
+			int xOffsetWeight = offsetKernel[k + StrongholdConstants.snappingRadius];
 			for (int l = -StrongholdConstants.snappingRadius; l <= StrongholdConstants.snappingRadius; l++) {
-				int zOffsetWeight = offsetWeights.get(k);
+				int zOffsetWeight = offsetKernel[k + StrongholdConstants.snappingRadius];
 				int w = xOffsetWeight * zOffsetWeight;
 				int n = 200;
 				for (int i = 0; i < n; i++) {
 					double phi = 2 * Math.PI * i / n;
-					int dr = Math.abs(Math.round((float) (Math.sqrt(k * k + l * l) * Math.sin(phi))));
+					int dr = Math.abs(Math.round((float) (Math.sqrt(k * k + l * l) * Math.sin(phi) * subdivisions)));
 					filter[dr] += w;
 					sum += dr == 0 ? w : 2 * w; // All offsets except dr=0 are double counted
 				}
@@ -42,11 +291,10 @@ public class ApproximatedDensity {
 		}
 		for (int i = 0; i < filter.length; i++) {
 			filter[i] = filter[i] / sum;
-			//System.out.println(filter[i]);
 		}
 		// convolve
 		double[] densityPreSnapping = density;
-		density = new double[StrongholdConstants.maxChunk / deltaR + 5];
+		density = new double[length];
 		for (int i = 0; i < density.length; i++) {
 			for (int j = -filter.length + 1; j < filter.length; j++) {
 				if (i + j >= 0 && i + j < densityPreSnapping.length) {
@@ -55,33 +303,85 @@ public class ApproximatedDensity {
 				}
 			}
 		}
-		cumulative_r_space = new double[StrongholdConstants.maxChunk / deltaR + 5];
+		double[] cumulative_r_space = new double[length];
 		double cumsum = 0;
 		for (int i = 0; i < cumulative_r_space.length; i++) {
-			cumsum += density[i] * i * deltaR * 2.0 * Math.PI;
+			cumsum += density[i] * i * deltaR * deltaR * 2.0 * Math.PI;
 			cumulative_r_space[i] = cumsum;
 		}
+		return new double[][] { density, cumulative_r_space };
 	}
 	
-	public static double density(double cx, double cz) {
-		init();
-		double d2 = cx * cx + cz * cz;
-		double k = Math.sqrt(d2) / deltaR;
-		double t = k - (int) k;
-		int i0 = (int) k;
-		int i1 = (int) k + 1;
-		return i1 < density.length ? (1.0 - t) * density[i0]  + t * density[i1] : 0;
+	/**
+	 * Generates the tables, checks that the shipped tables are identical to the calculated ones, or measures
+	 * the error of each tier.
+	 *
+	 * Usage: ApproximatedDensity output_file | --check | --evaluate
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("Usage: ApproximatedDensity output_file | --check | --evaluate");
+			return;
+		}
+		if (args[0].equals("--evaluate")) {
+			evaluateTiers();
+			return;
+		}
+		double[][] coarse = calculate(COARSE_SUBDIVISIONS);
+		double[][] fine = calculate(FINE_SUBDIVISIONS);
+		if (args[0].equals("--check")) {
+			double[][] shippedCoarse = load(COARSE_SUBDIVISIONS);
+			double[][] shippedFine = load(FINE_SUBDIVISIONS);
+			if (shippedCoarse == null || shippedFine == null) {
+				System.out.println("The resource " + RESOURCE + " is missing or invalid.");
+				System.exit(1);
+			}
+			boolean identical = Arrays.deepEquals(coarse, shippedCoarse) && Arrays.deepEquals(fine, shippedFine);
+			System.out.println(identical ? "The shipped tables are up to date." : "The shipped tables differ from the calculated ones.");
+			System.exit(identical ? 0 : 1);
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(args[0])))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(COARSE_SUBDIVISIONS);
+			out.writeInt(FINE_SUBDIVISIONS);
+			out.writeInt(StrongholdConstants.maxChunk);
+			out.writeInt(StrongholdConstants.snappingRadius);
+			out.writeInt(StrongholdConstants.distParam);
+			out.writeInt(StrongholdConstants.numRings);
+			for (double[] table : new double[][] { coarse[0], coarse[1], fine[0], fine[1] }) {
+				for (double value : table) {
+					out.writeDouble(value);
+				}
+			}
+		}
 	}
 	
-	public static double cumulativePolar(double r) {
-		if (r < 0)
-			return 0;
-		init();
-		double k = r / deltaR;
-		double t = k - (int) k;
-		int i0 = (int) k;
-		int i1 = (int) k + 1;
-		return i1 < cumulative_r_space.length ? (1.0 - t) * cumulative_r_space[i0]  + t * cumulative_r_space[i1] : cumulative_r_space[cumulative_r_space.length - 1];
+	/**
+	 * Prints the error of the approximated prior and the lookup time of each tier.
+	 */
+	private static void evaluateTiers() {
+		Prior prior = new Prior();
+		Random random = new Random(0);
+		int samples = 10000000;
+		double[] x = new double[samples];
+		double[] z = new double[samples];
+		for (int i = 0; i < samples; i++) {
+			x[i] = (random.nextDouble() * 2 - 1) * StrongholdConstants.maxChunk;
+			z[i] = (random.nextDouble() * 2 - 1) * StrongholdConstants.maxChunk;
+		}
+		for (Tier tier : Tier.values()) {
+			System.out.println(tier + ":");
+			new ApproximatedPrior(0, 0, StrongholdConstants.maxChunk, null, tier).evaluateError(prior);
+			double sum = 0;
+			long t0 = System.nanoTime();
+			for (int rep = 0; rep < 5; rep++) {
+				for (int i = 0; i < samples; i++) {
+					sum += tier.density(x[i], z[i]);
+				}
+			}
+			System.out.println(String.format("Time per lookup: %.2f ns (%g)", (System.nanoTime() - t0) / (5.0 * samples), sum));
+		}
 	}
 	
 }
@@ -1,19 +1,25 @@
 package ninjabrainbot.calculator;
 
-import ninjabrainbot.util.Coords;
-
 /**
  * A prior that approximates biome snapping as opposed to calculating it
  * exactly, which is costly.
  */
 public class ApproximatedPrior extends Prior {
 
+	private final ApproximatedDensity.Tier tier;
+
 	public ApproximatedPrior() {
-		super();
+		this(0, 0, StrongholdConstants.maxChunk, null);
 	}
 
 	public ApproximatedPrior(int centerX, int centerZ, int radius, DivineContext divineContext) {
-		super(centerX, centerZ, radius, divineContext);
+		this(centerX, centerZ, radius, divineContext, ApproximatedDensity.DEFAULT_TIER);
+	}
+
+	public ApproximatedPrior(int centerX, int centerZ, int radius, DivineContext divineContext, ApproximatedDensity.Tier tier) {
+		super(divineContext);
+		this.tier = tier;
+		construct(centerX, centerZ, radius);
 	}
 	
 	/**
@@ -22,7 +28,13 @@ public class ApproximatedPrior extends Prior {
 	public void evaluateError() {
 		System.out.println("Evaluating approximated prior.");
 		System.out.println("Constructing true prior...");
-		Prior prior = new Prior();
+		evaluateError(new Prior());
+	}
+	
+	/**
+	 * Test the accuracy of of the approximated prior, compared to the given world prior.
+	 */
+	public void evaluateError(Prior prior) {
 		System.out.println("Comparing approximation to true prior...");
 		double largestRelError = 0;
 		double sump = 0;
@@ -31,14 +43,14 @@ public class ApproximatedPrior extends Prior {
 		// ArrayList<Pair<Double, String>> errors = new ArrayList<>();
 		double totalSquaredError = 0;
 		int numNonZeroChunks = 0;
-		for (int i = 0; i < chunks.length; i++) {
-			if (prior.chunks[i].weight != 0) {
-				if (chunks[i].weight == 0) {
+		for (int i = 0; i < weights.length; i++) {
+			if (prior.weights[i] != 0) {
+				if (weights[i] == 0) {
 					System.out.println("x: " + (i % size1d - radius) + ", z: " + (i / size1d - radius));
-					System.out.println(prior.chunks[i].weight);
+					System.out.println(prior.weights[i]);
 					falseNegativeCount++;
 				}
-				double relError = chunks[i].weight / prior.chunks[i].weight;
+				double relError = weights[i] / prior.weights[i];
 				if (relError < 1f)
 					relError = 1f / relError;
 				relError -= 1f;
@@ -46,11 +58,11 @@ public class ApproximatedPrior extends Prior {
 					largestRelError = relError;
 				// errors.add(new Pair<Double, String>(relError, "x: " + (i % size1d - radius) + ", z: " + (i / size1d - radius)));
 				numNonZeroChunks++;
-				double error = prior.chunks[i].weight - chunks[i].weight;
+				double error = prior.weights[i] - weights[i];
 				totalSquaredError += error * error;
 			}
-			sump += prior.chunks[i].weight;
-			sum += chunks[i].weight;
+			sump += prior.weights[i];
+			sum += weights[i];
 		}
 //		errors.sort((Pair<Double, String> p1, Pair<Double, String> p2) -> Double.compare(p1.fst, p2.fst));
 //		for (Pair<Double, String> p : errors) {
@@ -73,24 +85,15 @@ public class ApproximatedPrior extends Prior {
 	@Override
 	protected double strongholdDensity(double cx, double cz, Ring ring) {
 		double d2 = cx * cx + cz * cz;
-		double relativeWeight = 1.0;
-		if (ring.ring == 0 && divineContext != null) {
-			double phi = Coords.getPhi(cx, cz);
-			relativeWeight = -divineContext.angleOffsetFromSector(phi) / (StrongholdConstants.snappingRadius * 1.5 / Math.sqrt(d2)); // 1.5 ~ sqrt(2) + a small margin
-			relativeWeight = (1.0 + relativeWeight) * 0.5;
-			// clamp
-			if (relativeWeight > 1)
-				relativeWeight = 1;
-			if (relativeWeight < 0)
-				relativeWeight = 0;
-			relativeWeight *= divineContext.relativeDensity();
-		}
 		// Post snapping circle radiuses (dont have to be exact, tighter margins only affect performance, not the result)
 		double c0_ps = ring.innerRadius - 2 * StrongholdConstants.snappingRadius;
 		double c1_ps = ring.outerRadius + 2 * StrongholdConstants.snappingRadius;
 		if (d2 < c0_ps * c0_ps || d2 > c1_ps * c1_ps)
 			return 0;
-		return relativeWeight * ApproximatedDensity.density(cx, cz);
+		double relativeWeight = 1.0;
+		if (ring.ring == 0 && divineContext != null)
+			relativeWeight = DivineSectorWeights.get(divineContext).weight(cx, cz);
+		return relativeWeight * tier.density(cx, cz);
 	}
 	
 	@Override
@@ -2,16 +2,34 @@ package ninjabrainbot.calculator;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 import ninjabrainbot.Main;
 import ninjabrainbot.util.Coords;
 import ninjabrainbot.util.Pair;
+import ninjabrainbot.util.ParallelRange;
 
 public class Calculator {
+	// Replaced instead of modified when a setting changes, since it is read by the calculator thread
+	public volatile StdSettings stds;
+	// Chunks are dropped from the posterior when their total probability is below this
+	public volatile double pruningEpsilon = Posterior.DEFAULT_PRUNING_EPSILON;
+	// Target time per stronghold density lookup, the most accurate density tier that meets it is used (0 to use
+	// the default tier)
+	public volatile double densityLookupTargetNanos = 0;
 	// Used only for pixel correction
-	public StdSettings stds;
 	int yRes = 1080;
 	int fov = 30;
+	// Posterior of the last triangulation, updated incrementally when throws are added, removed or changed
+	private Posterior lastPosterior;
+	// Recent results, so that states that have already been calculated (e.g. after undo) are not recalculated
+	private final ResultCache resultCache = new ResultCache(RESULT_CACHE_CAPACITY);
+	// Results that have been calculated speculatively (see Speculator), moved to resultCache when used
+	private final ResultCache speculativeResults = new ResultCache(SPECULATIVE_CACHE_CAPACITY);
+	
+	private static final int RESULT_CACHE_CAPACITY = 64;
+	private static final int SPECULATIVE_CACHE_CAPACITY = 16;
 
 	public Calculator() {
 		this(Main.preferences.sigma.get(), Main.preferences.sigmaAlt.get(), Main.preferences.sigmaManual.get());
@@ -30,32 +48,129 @@ public class Calculator {
 	}
 
 	public void setSigma(double sigma) {
-		this.stds.sigma = sigma;
+		this.stds = new StdSettings(sigma, stds.sigmaAlt, stds.sigmaManual);
 	}
 	
 	public void setSigmaAlt(double sigmaAlt) {
-		this.stds.sigmaAlt = sigmaAlt;
+		this.stds = new StdSettings(stds.sigma, sigmaAlt, stds.sigmaManual);
 	}
 	
-	public void setSigmaManual(double sigmaManual) {this.stds.sigmaManual = sigmaManual; }
+	public void setSigmaManual(double sigmaManual) {this.stds = new StdSettings(stds.sigma, stds.sigmaAlt, sigmaManual); }
 
 	public CalculatorResult triangulate(ArrayList<IThrow> eyeThrows, DivineContext divineContext, IThrow playerPos) {
+		return triangulate(eyeThrows, divineContext, playerPos, null, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Triangulates progressively: a provisional result, without closest stronghold conditioning, is passed to
+	 * onProvisionalResult as soon as it is available, before the final result is calculated. If the final result
+	 * is not done when timeBudgetMillis has passed, the provisional result is returned as the final one.
+	 */
+	public CalculatorResult triangulate(ArrayList<IThrow> eyeThrows, DivineContext divineContext, IThrow playerPos, Consumer<CalculatorResult> onProvisionalResult, long timeBudgetMillis) {
 		if (eyeThrows.size() == 0)
 			return new CalculatorResult();
-		long t0 = System.currentTimeMillis();
-		// Calculate posteriors
-		Posterior posterior = new Posterior(stds, eyeThrows, divineContext);
-		System.out.println("Time to triangulate: " + (System.currentTimeMillis() - t0)/1000f + " seconds.");
-		return new CalculatorResult(posterior, eyeThrows, playerPos);
+		long t0 = System.nanoTime();
+		long deadline = timeBudgetMillis == Long.MAX_VALUE ? Long.MAX_VALUE : t0 + timeBudgetMillis * 1000000;
+		// Read once, so that the result is calculated with the settings it is cached for
+		StdSettings stds = this.stds;
+		ResultCache.Key key = getKey(eyeThrows, divineContext, stds);
+		CalculatorResult result = resultCache.get(key);
+		if (result == null) {
+			result = speculativeResults.remove(key);
+			if (result == null) {
+				// Calculate posteriors
+				Posterior posterior = calculatePosterior(eyeThrows, divineContext, stds);
+				lastPosterior = posterior;
+				if (!posterior.isClosestStrongholdConditioned() && onProvisionalResult != null)
+					onProvisionalResult.accept(new CalculatorResult(posterior, eyeThrows, playerPos, true));
+				boolean finished = posterior.conditionOnClosestStronghold(deadline);
+				result = new CalculatorResult(posterior, eyeThrows, null);
+				// Results that ran out of time are not cached, so that they are completed if they are requested again
+				if (finished)
+					resultCache.put(key, result);
+			} else {
+				resultCache.put(key, result);
+			}
+		}
+		System.out.println("Time to triangulate: " + (System.nanoTime() - t0) / 1e9f + " seconds.");
+		return result.withPlayerPos(playerPos);
 	}
 	
-	public Posterior getPosterior(ArrayList<IThrow> eyeThrows, DivineContext divineContext) {
+	/**
+	 * Calculates the result for the given throws in advance, so that triangulate(...) only has to look it up
+	 * if they are triangulated later. Unlike triangulate(...), this does not change the posterior that the
+	 * next triangulation is updated from. The calculation only uses the calling thread, and stops when
+	 * cancelled becomes true, in which case false is returned and nothing is stored.
+	 */
+	public boolean precompute(List<IThrow> eyeThrows, DivineContext divineContext, BooleanSupplier cancelled) {
 		if (eyeThrows.size() == 0)
+			return true;
+		StdSettings stds = this.stds;
+		ResultCache.Key key = getKey(eyeThrows, divineContext, stds);
+		if (resultCache.contains(key) || speculativeResults.contains(key))
+			return true;
+		boolean[] finished = new boolean[1];
+		ParallelRange.sequentially(() -> {
+			Posterior posterior = calculatePosterior(eyeThrows, divineContext, stds);
+			if (cancelled.getAsBoolean() || !posterior.conditionOnClosestStronghold(Long.MAX_VALUE, cancelled))
+				return;
+			speculativeResults.put(key, new CalculatorResult(posterior, eyeThrows, null));
+			finished[0] = true;
+		});
+		return finished[0];
+	}
+	
+	private ResultCache.Key getKey(List<IThrow> eyeThrows, DivineContext divineContext, StdSettings stds) {
+		return new ResultCache.Key(eyeThrows, divineContext, stds, pruningEpsilon, getDensityTier(), Main.preferences.useAdvStatistics.get(), StrongholdConstants.getStrongholdChunkCoord());
+	}
+	
+	/**
+	 * Returns the most accurate way of looking up the stronghold density that meets densityLookupTargetNanos.
+	 */
+	public ApproximatedDensity.Tier getDensityTier() {
+		double target = densityLookupTargetNanos;
+		return target > 0 ? ApproximatedDensity.Tier.mostAccurateWithin(target) : ApproximatedDensity.DEFAULT_TIER;
+	}
+	
+	/**
+	 * Returns the number of triangulations whose result was found in the cache of recent results.
+	 */
+	public long getCacheHits() {
+		return resultCache.getHits();
+	}
+	
+	/**
+	 * Returns the number of triangulations whose result had to be calculated.
+	 */
+	public long getCacheMisses() {
+		return resultCache.getMisses();
+	}
+	
+	/**
+	 * Returns the number of triangulations whose result had been calculated speculatively.
+	 */
+	public long getSpeculativeHits() {
+		return speculativeResults.getHits();
+	}
+	
+	public Posterior getPosterior(ArrayList<IThrow> eyeThrows, DivineContext divineContext) {
+		if (eyeThrows.size() == 0) {
+			lastPosterior = null;
 			return null;
-		Posterior posterior = new Posterior(stds, eyeThrows, divineContext);
+		}
+		Posterior posterior = calculatePosterior(eyeThrows, divineContext, stds);
+		posterior.conditionOnClosestStronghold(Long.MAX_VALUE);
+		lastPosterior = posterior;
 		return posterior;
 	}
 	
+	private Posterior calculatePosterior(List<IThrow> eyeThrows, DivineContext divineContext, StdSettings stds) {
+		ApproximatedDensity.Tier densityTier = getDensityTier();
+		if (lastPosterior != null && lastPosterior.canBeUpdatedTo(eyeThrows, divineContext, stds, pruningEpsilon, densityTier))
+			return lastPosterior.withThrows(eyeThrows);
+		return new Posterior(stds, eyeThrows, divineContext, pruningEpsilon, densityTier);
+	}
+	
 	public BlindResult blind(BlindPosition b, DivineContext divineContext, boolean approximated) {
 		long t0 = System.currentTimeMillis();
 		int distanceThreshold = 400;
@@ -102,13 +217,13 @@ public class Calculator {
 		if (!approximated) {
 			prior = new Prior((int) x * 8 / 16, (int) z * 8 / 16, distanceThreshold / 16 + 1, divineContext);
 		} else {
-			prior = new ApproximatedPrior((int) x * 8 / 16, (int) z * 8 / 16, distanceThreshold / 16 + 1, divineContext);
+			prior = new ApproximatedPrior((int) x * 8 / 16, (int) z * 8 / 16, distanceThreshold / 16 + 1, divineContext, getDensityTier());
 		}
 		for (Chunk c : prior.getChunks()) {
 			double dx = x * 8 - c.x * 16 + 8;
 			double dz = z * 8 - c.z * 16 + 8;
 			if (dx * dx + dz * dz < distanceThreshold * distanceThreshold)
-				probability += c.weight;
+				probability += c.getWeight();
 		}
 		return probability;
 	}
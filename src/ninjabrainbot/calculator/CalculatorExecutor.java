@@ -0,0 +1,91 @@
+package ninjabrainbot.calculator;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs calculations on a dedicated background thread, one at a time. Only the newest calculation matters:
+ * calculations that have been superseded by a newer one before they started are skipped, and results of
+ * superseded calculations are never published. Background work can be scheduled for when the thread would
+ * otherwise be idle, it is skipped or told to stop as soon as a calculation is submitted.
+ */
+public class CalculatorExecutor {
+
+	private final ScheduledExecutorService executor;
+	private final Executor publisher;
+	private final AtomicLong latestRequest;
+
+	/**
+	 * @param publisher executor that results are published on, e.g. the event dispatch thread
+	 */
+	public CalculatorExecutor(Executor publisher) {
+		this.publisher = publisher;
+		latestRequest = new AtomicLong(0);
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "Calculator");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Submits a calculation, superseding all previously submitted calculations. The calculation should only
+	 * use immutable snapshots of its input. The result is passed to onResult on the publisher, unless another
+	 * calculation has been submitted by then.
+	 */
+	public <T> void submit(Supplier<T> calculation, Consumer<T> onResult) {
+		submitProgressive(publishProvisional -> calculation.get(), onResult);
+	}
+
+	/**
+	 * Like submit(...), but the calculation is given a consumer that it can pass provisional results to before
+	 * it is done. They are published the same way as the final result.
+	 */
+	public <T> void submitProgressive(Function<Consumer<T>, T> calculation, Consumer<T> onResult) {
+		long request = latestRequest.incrementAndGet();
+		Consumer<T> publish = result -> publisher.execute(() -> {
+			if (request == latestRequest.get())
+				onResult.accept(result);
+		});
+		executor.execute(() -> {
+			if (request != latestRequest.get())
+				return;
+			T result;
+			try {
+				result = calculation.apply(publish);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				return;
+			}
+			publish.accept(result);
+		});
+	}
+
+	/**
+	 * Runs task on the calculation thread after the given delay, unless a calculation has been submitted by
+	 * then. Since only one task runs at a time, a calculation that is submitted while the task is running
+	 * starts when the task is done, so the task is given a supplier that becomes true when that happens, and
+	 * should return soon after.
+	 */
+	public void submitIdle(Consumer<BooleanSupplier> task, long delayMillis) {
+		long request = latestRequest.get();
+		BooleanSupplier superseded = () -> request != latestRequest.get();
+		executor.schedule(() -> {
+			if (superseded.getAsBoolean())
+				return;
+			try {
+				task.accept(superseded);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+}
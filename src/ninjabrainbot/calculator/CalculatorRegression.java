@@ -0,0 +1,85 @@
+package ninjabrainbot.calculator;
+
+import java.util.ArrayList;
+
+import ninjabrainbot.Main;
+import ninjabrainbot.io.NinjabrainBotPreferences;
+
+/**
+ * Triangulations that have given wrong results before, run with main(...). Exits with status 1 if any of
+ * them fails.
+ */
+public class CalculatorRegression {
+
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		Main.preferences = new NinjabrainBotPreferences();
+		StrongholdConstants.updateStrongholdChunkCoord();
+		ApproximatedDensity.init();
+		misreadEye();
+		largeError();
+		misreadLastEye();
+		System.out.println(failures == 0 ? "All regression cases passed." : failures + " regression case(s) failed.");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Two throws at chunk (100, 40) and a misread third eye that points away from it. The cone of the third
+	 * throw used to contain the chunks next to its position, which were then the only chunks left, so the
+	 * result was a confident prediction of one of them instead of a failure.
+	 */
+	private static void misreadEye() {
+		ArrayList<IThrow> eyeThrows = new ArrayList<IThrow>();
+		eyeThrows.add(throwAt(836, -521, 100, 40));
+		eyeThrows.add(throwAt(1268, -802, 100, 40));
+		CalculatorResult result = new Calculator(0.1).triangulate(eyeThrows, null, eyeThrows.get(1));
+		ChunkPrediction best = result.getBestPrediction();
+		check("misread eye: consistent throws", result.success() && best.x == 100 && best.z == 40);
+		eyeThrows.add(new Throw(1500, 500, 120, -31, 0, false));
+		result = new Calculator(0.1).triangulate(eyeThrows, null, eyeThrows.get(2));
+		check("misread eye: inconsistent throws", !result.success());
+	}
+
+	/**
+	 * Two throws where the second one misses every chunk by about 36 standard deviations. The weights only
+	 * underflow beyond about 38.6 standard deviations, and the result used to be unsuccessful when chunks
+	 * further away than 35 standard deviations were dropped.
+	 */
+	private static void largeError() {
+		ArrayList<IThrow> eyeThrows = new ArrayList<IThrow>();
+		eyeThrows.add(new Throw(-750.01, -2215.93, 78.49, -31, 0, false));
+		eyeThrows.add(new Throw(-2834.98, -2166.64, -94.47, -31, 0, false));
+		CalculatorResult result = new Calculator(0.1).triangulate(eyeThrows, null, eyeThrows.get(1));
+		ChunkPrediction best = result.getBestPrediction();
+		check("large error", result.success() && best.x == -52 && best.z == -138);
+	}
+
+	/**
+	 * Three throws where the last one is misread. One chunk is inside all three cones, but the weights of
+	 * the chunks that are consistent with the first two throws underflow once the third throw is added, so
+	 * the result has to be unsuccessful. Only the chunks inside all cones were normalized over at first,
+	 * which made that chunk a confident prediction.
+	 */
+	private static void misreadLastEye() {
+		ArrayList<IThrow> eyeThrows = new ArrayList<IThrow>();
+		eyeThrows.add(new Throw(1811.26, -1825.32, 102.88, -31, 0, false));
+		eyeThrows.add(new Throw(1024.8, -2472.15, -26.8, -31, 0, false));
+		eyeThrows.add(new Throw(2457.06, -2683.03, 53.11, -31, 0, false));
+		CalculatorResult result = new Calculator(0.1).triangulate(eyeThrows, null, eyeThrows.get(2));
+		check("misread last eye", !result.success());
+	}
+
+	private static Throw throwAt(double x, double z, int chunkX, int chunkZ) {
+		double deltax = chunkX * 16 + StrongholdConstants.getStrongholdChunkCoord() - x;
+		double deltaz = chunkZ * 16 + StrongholdConstants.getStrongholdChunkCoord() - z;
+		return new Throw(x, z, -180 / Math.PI * Math.atan2(deltax, deltaz), -31, 0, false);
+	}
+
+	private static void check(String name, boolean passed) {
+		System.out.println((passed ? "PASS " : "FAIL ") + name);
+		if (!passed)
+			failures++;
+	}
+
+}
@@ -1,51 +1,128 @@
 package ninjabrainbot.calculator;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+/**
+ * Immutable snapshot of a triangulation. Everything that is displayed is calculated when the result is
+ * created, and the posterior is not kept, so results can be handed between threads without locking and
+ * only take up a few kB of memory.
+ */
 public class CalculatorResult {
-	
-	Posterior posterior;
-	ArrayList<IThrow> eyeThrows;
-	ChunkPrediction bestPrediction = new ChunkPrediction();
-	private final List<ChunkPrediction> topPredictions = new ArrayList<>();
-	private IThrow playerPos;
-
-	public CalculatorResult() {}
-	
-	public CalculatorResult(Posterior posterior, ArrayList<IThrow> eyeThrows, IThrow playerPos) {
-		this.posterior = posterior;
-		this.eyeThrows = new ArrayList<>();
+
+	private final List<IThrow> eyeThrows;
+	private final IThrow playerPos;
+	private final ChunkPrediction bestPrediction;
+	// The Posterior.NUM_TOP_CHUNKS most probable chunks, in descending order
+	private final List<ChunkPrediction> topPredictions;
+	private final double[] angleErrors;
+	private final int numChunks;
+	private final double discardedMass;
+	// True if the result is preliminary and will be replaced by a more accurate one
+	private final boolean provisional;
+
+	public CalculatorResult() {
+		eyeThrows = Collections.emptyList();
+		playerPos = null;
+		bestPrediction = new ChunkPrediction();
+		topPredictions = Collections.emptyList();
+		angleErrors = new double[0];
+		numChunks = 0;
+		discardedMass = 0;
+		provisional = false;
+	}
+
+	public CalculatorResult(Posterior posterior, List<IThrow> eyeThrows, IThrow playerPos) {
+		this(posterior, eyeThrows, playerPos, false);
+	}
+
+	public CalculatorResult(Posterior posterior, List<IThrow> eyeThrows, IThrow playerPos, boolean provisional) {
+		this.eyeThrows = Collections.unmodifiableList(new ArrayList<>(eyeThrows));
 		this.playerPos = playerPos;
-		this.eyeThrows.addAll(eyeThrows);
-		// Find chunk with largest posterior probability
-		Chunk predictedChunk = posterior.getMostProbableChunk();
-		bestPrediction = new ChunkPrediction(predictedChunk, playerPos);
+		bestPrediction = new ChunkPrediction(posterior.getMostProbableChunk(), playerPos);
+		List<ChunkPrediction> top = new ArrayList<>();
+		for (Chunk c : posterior.getTopChunks(Posterior.NUM_TOP_CHUNKS)) {
+			top.add(new ChunkPrediction(c, playerPos));
+		}
+		topPredictions = Collections.unmodifiableList(top);
+		angleErrors = bestPrediction.getAngleErrors(this.eyeThrows);
+		numChunks = posterior.size();
+		discardedMass = posterior.getDiscardedMass();
+		this.provisional = provisional;
 	}
-	
-	public List<ChunkPrediction> getTopPredictions(int amount) {
-		if (topPredictions.isEmpty()) {
-			List<Chunk> topChunks = posterior.getChunks();
-			topChunks.sort((a, b) -> -Double.compare(a.weight, b.weight));
-			for (Chunk c : topChunks) {
-				topPredictions.add(new ChunkPrediction(c, playerPos));
-				if (topPredictions.size() >= amount)
-					break;
-			}
+
+	private CalculatorResult(CalculatorResult result, IThrow playerPos) {
+		eyeThrows = result.eyeThrows;
+		this.playerPos = playerPos;
+		bestPrediction = new ChunkPrediction(result.bestPrediction, playerPos);
+		List<ChunkPrediction> top = new ArrayList<>();
+		for (ChunkPrediction p : result.topPredictions) {
+			top.add(new ChunkPrediction(p, playerPos));
 		}
-		return topPredictions;
+		topPredictions = Collections.unmodifiableList(top);
+		angleErrors = result.angleErrors;
+		numChunks = result.numChunks;
+		discardedMass = result.discardedMass;
+		provisional = result.provisional;
+	}
+
+	/**
+	 * Returns a result with the same predictions, but with distances and angles calculated from the given
+	 * player position. The posterior is not recalculated.
+	 */
+	public CalculatorResult withPlayerPos(IThrow playerPos) {
+		return new CalculatorResult(this, playerPos);
+	}
+
+	/**
+	 * Returns the (at most Posterior.NUM_TOP_CHUNKS) most probable chunks, in descending order.
+	 */
+	public List<ChunkPrediction> getTopPredictions(int amount) {
+		return topPredictions.subList(0, Math.min(amount, topPredictions.size()));
 	}
-	
+
 	public ChunkPrediction getBestPrediction() {
 		return bestPrediction;
 	}
-	
+
 	public double[] getAngleErrors() {
-		return bestPrediction.getAngleErrors(eyeThrows);
+		return angleErrors.clone();
+	}
+
+	public List<IThrow> getEyeThrows() {
+		return eyeThrows;
+	}
+
+	public IThrow getPlayerPos() {
+		return playerPos;
+	}
+
+	/**
+	 * Returns the number of chunks in the posterior that the result was calculated from.
+	 */
+	public int getNumChunks() {
+		return numChunks;
+	}
+
+	/**
+	 * Returns the approximate total probability of the chunks that were dropped from the posterior because
+	 * they were negligible.
+	 */
+	public double getDiscardedMass() {
+		return discardedMass;
 	}
-	
+
+	/**
+	 * Returns true if the result is preliminary, i.e. it has been published before the calculation finished and
+	 * will be replaced by a more accurate result.
+	 */
+	public boolean isProvisional() {
+		return provisional;
+	}
+
 	public boolean success() {
 		return bestPrediction.success;
 	}
-	
+
 }
@@ -55,7 +55,7 @@ public class Calibrator {
 			if (stronghold == null) {
 				Posterior posterior = triangulator.getPosterior(eyeThrows, null);
 				prediction = posterior.getMostProbableChunk();
-				if (1.0 - prediction.weight < 1e-8) {
+				if (1.0 - prediction.getWeight() < 1e-8) {
 					stronghold = prediction;
 				}
 				closest = posterior.getClosestPossibleChunk(1e-4, t);
@@ -7,12 +7,10 @@ public class Chunk {
 	
 	public final int x;
 	public final int z;
-	public double weight;
+	private final double weight;
 	
 	public Chunk(int x, int z) {
-		this.x = x;
-		this.z = z;
-		weight = 0.0;
+		this(x, z, 0.0);
 	}
 	
 	public Chunk(int x, int z, double w) {
@@ -20,6 +18,10 @@ public class Chunk {
 		this.z = z;
 		weight = w;
 	}
+	
+	public double getWeight() {
+		return weight;
+	}
 
 	@Override
 	public int hashCode() {
@@ -41,9 +43,7 @@ public class Chunk {
 	
 	@Override
 	protected Chunk clone() {
-		Chunk c = new Chunk(x, z);
-		c.weight = this.weight;
-		return c;
+		return new Chunk(x, z, weight);
 	}
 	
 	/**
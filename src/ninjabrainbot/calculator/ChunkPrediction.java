@@ -10,24 +10,24 @@ public class ChunkPrediction extends Chunk {
 
 	public final int fourfour_x, fourfour_z;
 	public final boolean success;
-	private int distance;
-	private double travelAngle;
-	private double travelAngleDiff;
+	private final int distance;
+	private final double travelAngle;
+	private final double travelAngleDiff;
 	
 	/**
 	 * Creates a triangulation result.
 	 */
 	public ChunkPrediction(Chunk chunk, IThrow playerPos) {
-		super(chunk.x, chunk.z, chunk.weight);
+		super(chunk.x, chunk.z, chunk.getWeight());
 		this.fourfour_x = 16 * chunk.x + 4;
 		this.fourfour_z = 16 * chunk.z + 4;
-		this.success = Double.isFinite(chunk.weight) && chunk.weight > 0.0005;
-		if (playerPos != null) {
-			updateWithPlayerPos(playerPos);
+		this.success = Double.isFinite(chunk.getWeight()) && chunk.getWeight() > 0.0005;
+		if (playerPos == null) {
+			distance = 0;
+			travelAngle = 0;
+			travelAngleDiff = 0;
+			return;
 		}
-	}
-
-	private void updateWithPlayerPos(IThrow playerPos) {
 		distance = getDistance(playerPos);
 		double playerX = playerPos.x();
 		double playerZ = playerPos.z();
@@ -99,7 +99,7 @@ public class ChunkPrediction extends Chunk {
 	}
 
 	public String formatCertainty() {
-		return String.format(Locale.US, "%.1f%%", weight * 100);
+		return String.format(Locale.US, "%.1f%%", getWeight() * 100);
 	}
 
 	public String formatDistance() {
@@ -0,0 +1,253 @@
+package ninjabrainbot.calculator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import ninjabrainbot.util.Coords;
+import ninjabrainbot.util.ParallelRange;
+
+/**
+ * Lookup table of the probability that the stronghold in a chunk is the closest one to the player (see
+ * Posterior.closestStrongholdProbability), as a function of the distance of the player from the origin, the
+ * distance of the stronghold from the origin and the angle between them, for each ring.
+ *
+ * The probability only depends on those if strongholds are in the corner of their chunk (1.19+). If they are
+ * in the center of the chunk (pre 1.19), the ring and the angle of the stronghold differ slightly from those
+ * of the chunk, which is within the interpolation error of the table (see main(...) with --evaluate).
+ *
+ * The table is used for the chunks that Posterior does not condition exactly. It is generated offline with
+ * main(...) and shipped as a resource, and is interpolated linearly in all three dimensions. If the resource
+ * is missing, was generated for different stronghold constants or with a different density tier, those
+ * chunks are conditioned on the average probability of the exactly conditioned chunks instead.
+ */
+public class ClosestStrongholdTable {
+
+	public static final String RESOURCE = "/resources/closest_stronghold_table.bin";
+
+	private static final int MAGIC = 0x4e424353; // "NBCS"
+	private static final int VERSION = 2;
+
+	private static final ApproximatedDensity.Tier DENSITY_TIER = ApproximatedDensity.DEFAULT_TIER;
+
+	private static final double MAX_PLAYER_R = 192;
+	private static final int NUM_PLAYER_R = 33;
+	private static final int NUM_CHUNK_R = 17;
+	private static final int NUM_PHI = 65;
+
+	private final float[] table;
+
+	/**
+	 * The table is loaded when the holder class is first used, see ApproximatedDensity.CoarseTables.
+	 */
+	private static class Holder {
+		static final ClosestStrongholdTable instance = load();
+	}
+
+	private ClosestStrongholdTable(float[] table) {
+		this.table = table;
+	}
+
+	/**
+	 * Returns the table, or null if it is not available.
+	 */
+	public static ClosestStrongholdTable get() {
+		return Holder.instance;
+	}
+
+	private static ClosestStrongholdTable load() {
+		float[] table = read();
+		return table == null ? null : new ClosestStrongholdTable(table);
+	}
+
+	/**
+	 * Returns the values in the resource, or null if they are not available.
+	 */
+	private static float[] read() {
+		try (InputStream stream = ClosestStrongholdTable.class.getResourceAsStream(RESOURCE)) {
+			if (stream == null)
+				return null;
+			DataInputStream in = new DataInputStream(stream);
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Unsupported closest stronghold table.");
+			if (in.readInt() != NUM_PLAYER_R || in.readInt() != NUM_CHUNK_R || in.readInt() != NUM_PHI || in.readDouble() != MAX_PLAYER_R)
+				throw new IOException("Closest stronghold table has the wrong resolution.");
+			if (in.readInt() != StrongholdConstants.maxChunk || in.readInt() != StrongholdConstants.snappingRadius || in.readInt() != StrongholdConstants.distParam || in.readInt() != StrongholdConstants.numRings)
+				throw new IOException("Closest stronghold table was generated for different stronghold constants.");
+			if (in.readInt() != DENSITY_TIER.ordinal())
+				throw new IOException("Closest stronghold table was generated with a different density tier.");
+			byte[] bytes = new byte[length() * Float.BYTES];
+			in.readFully(bytes);
+			float[] table = new float[length()];
+			ByteBuffer.wrap(bytes).asFloatBuffer().get(table);
+			return table;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private static int length() {
+		return StrongholdConstants.numRings * NUM_PLAYER_R * NUM_CHUNK_R * NUM_PHI;
+	}
+
+	/**
+	 * Returns true if the table covers a player at the given distance from the origin (in chunks).
+	 */
+	public boolean isApplicable(double r_p, ApproximatedDensity.Tier densityTier) {
+		return densityTier == DENSITY_TIER && r_p <= MAX_PLAYER_R;
+	}
+
+	/**
+	 * Returns the probability that the stronghold in chunk (cx, cz) is the closest one to a player at distance
+	 * r_p (in chunks) from the origin and at the angle phi_p.
+	 */
+	public double get(int cx, int cz, double r_p, double phi_p, int strongholdChunkCoord) {
+		Ring ring = Ring.get(Math.sqrt(cx * cx + cz * cz));
+		if (ring == null)
+			return 0;
+		double sx = cx + strongholdChunkCoord / 16.0;
+		double sz = cz + strongholdChunkCoord / 16.0;
+		return get(ring, r_p, Math.sqrt(sx * sx + sz * sz), Coords.getPhi(sx, sz) - phi_p);
+	}
+
+	/**
+	 * Returns the probability for a stronghold of the given ring at distance r_s from the origin, where
+	 * deltaPhi is the angle between the stronghold and the player.
+	 */
+	private double get(Ring ring, double r_p, double r_s, double deltaPhi) {
+		double u = r_p / MAX_PLAYER_R * (NUM_PLAYER_R - 1);
+		double v = (r_s - ring.innerRadiusPostSnapping) / (ring.outerRadiusPostSnapping - ring.innerRadiusPostSnapping) * (NUM_CHUNK_R - 1);
+		v = Math.max(0, Math.min(v, NUM_CHUNK_R - 1));
+		double w = Math.abs(Math.IEEEremainder(deltaPhi, 2 * Math.PI)) / Math.PI * (NUM_PHI - 1);
+		int i = Math.min((int) u, NUM_PLAYER_R - 2);
+		int j = Math.min((int) v, NUM_CHUNK_R - 2);
+		int k = Math.min((int) w, NUM_PHI - 2);
+		double tu = u - i;
+		double tv = v - j;
+		double tw = w - k;
+		int index = index(ring.ring, i, j, k);
+		int di = NUM_CHUNK_R * NUM_PHI;
+		int dj = NUM_PHI;
+		double c00 = (1 - tw) * table[index] + tw * table[index + 1];
+		double c01 = (1 - tw) * table[index + dj] + tw * table[index + dj + 1];
+		double c10 = (1 - tw) * table[index + di] + tw * table[index + di + 1];
+		double c11 = (1 - tw) * table[index + di + dj] + tw * table[index + di + dj + 1];
+		return (1 - tu) * ((1 - tv) * c00 + tv * c01) + tu * ((1 - tv) * c10 + tv * c11);
+	}
+
+	private static int index(int ring, int i, int j, int k) {
+		return ((ring * NUM_PLAYER_R + i) * NUM_CHUNK_R + j) * NUM_PHI + k;
+	}
+
+	/**
+	 * Generates the table, checks that the shipped table is identical to the calculated one, or measures the
+	 * interpolation error of the shipped table.
+	 *
+	 * Usage: ClosestStrongholdTable output_file | --check | --evaluate
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("Usage: ClosestStrongholdTable output_file | --check | --evaluate");
+			return;
+		}
+		ApproximatedDensity.init();
+		if (args[0].equals("--evaluate")) {
+			evaluateError();
+			return;
+		}
+		float[] values = calculate();
+		if (args[0].equals("--check")) {
+			float[] shipped = read();
+			if (shipped == null) {
+				System.out.println("The resource " + RESOURCE + " is missing or invalid.");
+				System.exit(1);
+			}
+			boolean identical = Arrays.equals(values, shipped);
+			System.out.println(identical ? "The shipped table is up to date." : "The shipped table differs from the calculated one.");
+			System.exit(identical ? 0 : 1);
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(args[0])))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(NUM_PLAYER_R);
+			out.writeInt(NUM_CHUNK_R);
+			out.writeInt(NUM_PHI);
+			out.writeDouble(MAX_PLAYER_R);
+			out.writeInt(StrongholdConstants.maxChunk);
+			out.writeInt(StrongholdConstants.snappingRadius);
+			out.writeInt(StrongholdConstants.distParam);
+			out.writeInt(StrongholdConstants.numRings);
+			out.writeInt(DENSITY_TIER.ordinal());
+			for (float value : values) {
+				out.writeFloat(value);
+			}
+		}
+	}
+
+	private static float[] calculate() {
+		float[] values = new float[length()];
+		ParallelRange.forEach(values.length, NUM_PHI, (start, end) -> {
+			for (int index = start; index < end; index++) {
+				int k = index % NUM_PHI;
+				int j = index / NUM_PHI % NUM_CHUNK_R;
+				int i = index / (NUM_PHI * NUM_CHUNK_R) % NUM_PLAYER_R;
+				int ring = index / (NUM_PHI * NUM_CHUNK_R * NUM_PLAYER_R);
+				values[index] = (float) exact(ring, MAX_PLAYER_R * i / (NUM_PLAYER_R - 1), (double) j / (NUM_CHUNK_R - 1), Math.PI * k / (NUM_PHI - 1));
+			}
+		});
+		return values;
+	}
+
+	/**
+	 * Prints the error of the shipped table for random chunks and player positions, for both positions of
+	 * strongholds within their chunk.
+	 */
+	private static void evaluateError() {
+		ClosestStrongholdTable table = get();
+		if (table == null) {
+			System.out.println("The resource " + RESOURCE + " is missing or invalid.");
+			return;
+		}
+		for (int strongholdChunkCoord : new int[] { 0, 8 }) {
+			Random random = new Random(0);
+			double maxError = 0;
+			double totalError = 0;
+			int samples = 100000;
+			for (int n = 0; n < samples; n++) {
+				Ring ring = Ring.get(random.nextInt(StrongholdConstants.numRings));
+				double r_c = ring.innerRadiusPostSnapping + random.nextDouble() * (ring.outerRadiusPostSnapping - ring.innerRadiusPostSnapping);
+				double phi_c = random.nextDouble() * 2 * Math.PI;
+				int cx = (int) Math.floor(Coords.getX(r_c, phi_c));
+				int cz = (int) Math.floor(Coords.getZ(r_c, phi_c));
+				double r_p = random.nextDouble() * MAX_PLAYER_R;
+				double phi_p = random.nextDouble() * 2 * Math.PI;
+				double px = Coords.getX(r_p, phi_p) * 16;
+				double pz = Coords.getZ(r_p, phi_p) * 16;
+				double exact = Posterior.closestStrongholdProbability(cx, cz, px, pz, strongholdChunkCoord, DENSITY_TIER);
+				double error = Math.abs(table.get(cx, cz, r_p, Coords.getPhi(px, pz), strongholdChunkCoord) - exact);
+				maxError = Math.max(maxError, error);
+				totalError += error;
+			}
+			System.out.println(String.format("Stronghold chunk coord %d: max error: %.3g, mean error: %.3g", strongholdChunkCoord, maxError, totalError / samples));
+		}
+	}
+
+	/**
+	 * Calculates the probability for a chunk of the given ring, at the relative position v in the ring.
+	 */
+	private static double exact(int ringIndex, double r_p, double v, double deltaPhi) {
+		Ring ring = Ring.get(ringIndex);
+		double r_c = ring.innerRadiusPostSnapping + v * (ring.outerRadiusPostSnapping - ring.innerRadiusPostSnapping);
+		// Player on the phi = 0 axis
+		double d_i = Math.sqrt(r_p * r_p + r_c * r_c - 2 * r_p * r_c * Math.cos(deltaPhi));
+		return Posterior.closestStrongholdProbability(ring, r_p, 0, deltaPhi, d_i, DENSITY_TIER);
+	}
+
+}
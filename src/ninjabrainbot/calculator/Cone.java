@@ -0,0 +1,63 @@
+package ninjabrainbot.calculator;
+
+/**
+ * The region that a throw points at, i.e. all chunks whose bearing from the throw is within some tolerance
+ * of the angle of the throw. Coordinates are in chunks, relative to the stronghold position in the chunk
+ * (the same grid as in RayApproximatedPrior), so a chunk is inside if the bearing to the stronghold position
+ * in it is, which is the bearing that the likelihood of the throw is evaluated at. Chunks close to the
+ * position of the throw are therefore only inside if the throw actually points at them.
+ */
+class Cone {
+
+	// Apex
+	private final double ox, oz;
+	// Unit normals of the two boundaries, pointing into the cone
+	private final double ux, uz, vx, vz;
+
+	/**
+	 * Creates a cone with the given half-angle (in radians, less than pi/2).
+	 */
+	Cone(IRay r, double tolerance, int strongholdChunkCoord) {
+		ox = (r.x() - strongholdChunkCoord) / 16.0;
+		oz = (r.z() - strongholdChunkCoord) / 16.0;
+		double phi = r.alpha() / 180.0 * Math.PI;
+		// The normal of the boundary at phi - tolerance points towards phi + pi/2 - tolerance, and vice versa
+		ux = -Math.sin(phi - tolerance + Math.PI / 2);
+		uz = Math.cos(phi - tolerance + Math.PI / 2);
+		vx = -Math.sin(phi + tolerance - Math.PI / 2);
+		vz = Math.cos(phi + tolerance - Math.PI / 2);
+	}
+
+	boolean contains(double cx, double cz) {
+		double dx = cx - ox;
+		double dz = cz - oz;
+		return ux * dx + uz * dz >= 0 && vx * dx + vz * dz >= 0;
+	}
+
+	/**
+	 * Intersects interval = {min, max} (minor coordinates along the line with the given major coordinate) with
+	 * the cone. The interval is empty if min > max afterwards.
+	 */
+	void clip(double major, boolean majorX, double[] interval) {
+		clip(major, majorX, interval, ux, uz);
+		clip(major, majorX, interval, vx, vz);
+	}
+
+	private void clip(double major, boolean majorX, double[] interval, double nx, double nz) {
+		double n_major = majorX ? nx : nz;
+		double n_minor = majorX ? nz : nx;
+		double o_major = majorX ? ox : oz;
+		double o_minor = majorX ? oz : ox;
+		// n_major * (major - o_major) + n_minor * (minor - o_minor) >= 0
+		double c = -n_major * (major - o_major);
+		if (n_minor > 0) {
+			interval[0] = Math.max(interval[0], o_minor + c / n_minor);
+		} else if (n_minor < 0) {
+			interval[1] = Math.min(interval[1], o_minor + c / n_minor);
+		} else if (c > 0) {
+			interval[0] = Double.POSITIVE_INFINITY;
+			interval[1] = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+package ninjabrainbot.calculator;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import ninjabrainbot.util.Coords;
+
+/**
+ * Relative prior weights of ring 0 given a divine fossil, as used by the approximated priors: the weight is
+ * relativeDensity() inside the divine sectors and 0 outside, with a linear transition over the distance a
+ * stronghold can be moved by biome snapping.
+ *
+ * There are only 16 possible fossils, so the weights are cached per fossil for the lifetime of the process,
+ * on a grid with a spacing of half a chunk. The approximated priors only evaluate the weights at chunk
+ * centers and chunk corners, which are all on the grid. Grid values are calculated the first time they are
+ * used, so a fossil that is never used costs nothing.
+ */
+class DivineSectorWeights {
+
+	private static final DivineSectorWeights[] cache = new DivineSectorWeights[16];
+
+	private final DivineContext divineContext;
+	// Radius of the grid in chunks, large enough to cover ring 0 after snapping
+	private final int radius;
+	private final int size1d;
+	// Raw bits of the weights, NOT_CALCULATED if not calculated yet. Atomic because plain writes of doubles
+	// are not guaranteed to be atomic.
+	private final AtomicLongArray weights;
+
+	private static final long NOT_CALCULATED = Double.doubleToRawLongBits(Double.NaN);
+
+	private DivineSectorWeights(DivineContext divineContext) {
+		this.divineContext = divineContext;
+		radius = (int) Math.ceil(Ring.get(0).outerRadiusPostSnapping) + 1;
+		size1d = 4 * radius + 1;
+		weights = new AtomicLongArray(size1d * size1d);
+		for (int i = 0; i < weights.length(); i++) {
+			weights.set(i, NOT_CALCULATED);
+		}
+	}
+
+	/**
+	 * Returns the weights for the fossil of the divine context.
+	 */
+	static synchronized DivineSectorWeights get(DivineContext divineContext) {
+		int x = divineContext.fossil.x;
+		if (cache[x] == null)
+			cache[x] = new DivineSectorWeights(divineContext);
+		return cache[x];
+	}
+
+	/**
+	 * Returns the relative weight of the point (cx, cz) in chunk coordinates.
+	 */
+	double weight(double cx, double cz) {
+		double u = 2 * (cx + radius);
+		double v = 2 * (cz + radius);
+		int i = (int) u;
+		int j = (int) v;
+		if (i != u || j != v || i < 0 || i >= size1d || j < 0 || j >= size1d)
+			return calculate(cx, cz);
+		int index = i * size1d + j;
+		long bits = weights.get(index);
+		if (bits == NOT_CALCULATED) {
+			// Concurrent writes store the same value, so they do not have to be ordered
+			double w = calculate(cx, cz);
+			weights.lazySet(index, Double.doubleToRawLongBits(w));
+			return w;
+		}
+		return Double.longBitsToDouble(bits);
+	}
+
+	private double calculate(double cx, double cz) {
+		double phi = Coords.getPhi(cx, cz);
+		double relativeWeight = -divineContext.angleOffsetFromSector(phi) / (StrongholdConstants.snappingRadius * 1.5 / Math.sqrt(cx * cx + cz * cz)); // 1.5 ~ sqrt(2) + a small margin
+		relativeWeight = (1.0 + relativeWeight) * 0.5;
+		// clamp
+		if (relativeWeight > 1)
+			relativeWeight = 1;
+		if (relativeWeight < 0)
+			relativeWeight = 0;
+		return relativeWeight * divineContext.relativeDensity();
+	}
+
+}
@@ -159,6 +159,12 @@ public class OffsetThrow implements IThrow
         return new OffsetThrow(throwPos, measurement.withToggledSTD(), passedEyeTangent);
     }
 
+    IThrow throwPos() { return throwPos; }
+
+    IThrow measurement() { return measurement; }
+
+    boolean passedEyeTangent() { return passedEyeTangent; }
+
     public boolean isValid()
     {
         return !(Double.isNaN(alpha) || Double.isNaN(alpha_0));
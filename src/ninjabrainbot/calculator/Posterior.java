@@ -1,66 +1,661 @@
 package ninjabrainbot.calculator;
 
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 
 import ninjabrainbot.Main;
 import ninjabrainbot.util.Coords;
+import ninjabrainbot.util.ParallelRange;
 import ninjabrainbot.util.Profiler;
+import ninjabrainbot.util.TopK;
 
 public class Posterior {
 	
-	IPrior prior;
-	ArrayList<Chunk> chunks;
 	StdSettings stds;
+	DivineContext divineContext;
+	final List<IThrow> eyeThrows;
+	final boolean useAdvStatistics;
+	final int strongholdChunkCoord;
+	// The posterior is stored as parallel arrays, Chunk objects are only created for chunks that are requested.
+	// The coordinates, the prior and the log-likelihoods are never modified, so they are shared between a
+	// posterior and the posteriors that are derived from it. Dropping chunks creates new arrays.
+	int size;
+	int[] x;
+	int[] z;
+	double[] logPrior;
+	// Log-likelihood of each throw in eyeThrows, for every chunk
+	final List<double[]> logLikelihoods;
+	// Bearing from the position of each throw in eyeThrows to every chunk, shared by throws from the same
+	// position so that changing the angle of a throw does not require recalculating them
+	final List<double[]> bearings;
+	// Sum of the log prior and all log-likelihoods
+	double[] logWeight;
+	double[] weight;
+	// Indices of the (at most) NUM_TOP_CHUNKS most probable chunks, in descending order of weight
+	private int[] topIndices;
+	// True if the weights have been conditioned on the stronghold being the closest one to the player (see
+	// conditionOnClosestStronghold(...)), or if there is no need to
+	private boolean closestStrongholdConditioned;
+	// Memoized closest stronghold probability of each chunk (NaN if not yet calculated). It only depends on the
+	// first throw, so it is shared with derived posteriors.
+	private final double[] closestStrongholdProbabilities;
+	// Throws that chunks have been dropped for, because they are outside their cones
+	private final List<IThrow> supportThrows;
+	// Chunks are dropped when their total probability is below this
+	final double pruningEpsilon;
+	// How the stronghold density is looked up, in the prior and in closest stronghold conditioning
+	final ApproximatedDensity.Tier densityTier;
+	// Approximate probability of the chunks that have been dropped because they were negligible
+	private double discardedMass;
+	// This posterior before negligible chunks were dropped, which derived posteriors are calculated from since
+	// the chunks might not be negligible given other throws. The indices of the remaining chunks in it are
+	// also the indices in closestStrongholdProbabilities.
+	private Posterior unpruned;
+	private int[] unprunedIndices;
+	// True if tiles of chunks were dropped because they are negligible given all throws (see getTileSupport()),
+	// in which case no posteriors can be derived from this one
+	private boolean tileRestricted;
+	
+	// exp(x) is 0 for x below this, which is where the weights underflowed before the posterior was calculated
+	// in log space
+	private static final double LOG_UNDERFLOW = Math.log(Double.MIN_VALUE) - Math.log(2);
+	// A throw that misses a chunk by more than this many standard deviations gives it a likelihood of 0
+	private static final double MAX_ERROR_STDS = Math.sqrt(-2 * LOG_UNDERFLOW);
+	public static final double DEFAULT_PRUNING_EPSILON = 1e-12;
+	// Side length of the tiles that likelihoods are bounded on, in chunks
+	private static final int TILE_SIZE = 4;
+	// Number of most probable chunks that are selected when the weights are calculated
+	public static final int NUM_TOP_CHUNKS = 10;
+	// Number of chunks per parallel task in closest stronghold conditioning
+	private static final int CLOSEST_STRONGHOLD_BLOCK_SIZE = 8;
 	
 	public Posterior(StdSettings stds, List<IThrow> eyeThrows, DivineContext divineContext) {
+		this(stds, eyeThrows, divineContext, DEFAULT_PRUNING_EPSILON, ApproximatedDensity.DEFAULT_TIER);
+	}
+	
+	/**
+	 * Creates a posterior where the least probable chunks are dropped as long as their total probability is
+	 * below pruningEpsilon (0 to keep all chunks), and the stronghold density is looked up with the given tier.
+	 */
+	public Posterior(StdSettings stds, List<IThrow> eyeThrows, DivineContext divineContext, double pruningEpsilon, ApproximatedDensity.Tier densityTier) {
 		Profiler.clear();
 		Profiler.start("Calculate posterior");
-		this.stds = stds;
+		this.stds = stds.copy();
+		this.divineContext = divineContext;
+		this.eyeThrows = new ArrayList<IThrow>(eyeThrows);
+		logLikelihoods = new ArrayList<double[]>();
+		bearings = new ArrayList<double[]>();
+		this.pruningEpsilon = pruningEpsilon;
+		this.densityTier = densityTier;
+		useAdvStatistics = Main.preferences.useAdvStatistics.get();
+		strongholdChunkCoord = StrongholdConstants.getStrongholdChunkCoord();
 
 		Profiler.start("Calculate prior");
-		double sigma0 = eyeThrows.get(0).getStd(stds);
-		prior = new RayApproximatedPrior(eyeThrows.get(0), Math.min(1.0, 30 * sigma0) / 180.0 * Math.PI, divineContext);
+		// Only chunks that are consistent with all throws are considered
+		supportThrows = new ArrayList<IThrow>();
+		List<Cone> cones = new ArrayList<Cone>();
+		for (IThrow t : eyeThrows.subList(1, eyeThrows.size())) {
+			Cone cone = getCone(t);
+			if (cone != null) {
+				cones.add(cone);
+				supportThrows.add(t);
+			}
+		}
+		RayApproximatedPrior prior = new RayApproximatedPrior(eyeThrows.get(0), getPriorTolerance(eyeThrows.get(0)), divineContext, cones, densityTier);
 		Profiler.stopAndStart("Determine constants");
-		chunks = new ArrayList<Chunk>();
 		double px = eyeThrows.get(0).x();
 		double pz = eyeThrows.get(0).z();
 		double maxDist = StrongholdConstants.getMaxDistance(px, pz) / 16.0;
 		double maxDist2 = maxDist * maxDist;
 		Profiler.stopAndStart("Copy chunks from prior");
-		for (Chunk c : prior.getChunks()) {
-			Chunk clone = c.clone();
-			double dx = clone.x - px / 16.0;
-			double dz = clone.z - pz / 16.0;
-			if (dx * dx + dz * dz > maxDist2) {
-				clone.weight = 0;
+		size = prior.size;
+		x = prior.x;
+		z = prior.z;
+		logPrior = new double[size];
+		ParallelRange.forEach(size, (start, end) -> {
+			for (int i = start; i < end; i++) {
+				double dx = x[i] - px / 16.0;
+				double dz = z[i] - pz / 16.0;
+				logPrior[i] = dx * dx + dz * dz > maxDist2 ? Double.NEGATIVE_INFINITY : Math.log(prior.weight[i]);
+			}
+		});
+		if (eyeThrows.size() > 1 && pruningEpsilon > 0) {
+			Profiler.stopAndStart("Drop negligible tiles");
+			int[] support = getTileSupport();
+			if (support != null) {
+				tileRestricted = true;
+				size = support.length;
+				x = restrict(x, support);
+				z = restrict(z, support);
+				logPrior = restrict(logPrior, support);
 			}
-			chunks.add(clone);
 		}
+		logWeight = Arrays.copyOf(logPrior, size);
+		closestStrongholdProbabilities = new double[size];
+		Arrays.fill(closestStrongholdProbabilities, Double.NaN);
 		Profiler.stopAndStart("Measurement error conditioning");
 		for (IThrow t : eyeThrows) {
-			condition(t);
+			double[] bearing = getBearings(t, Collections.emptyList(), Collections.emptyList());
+			double[] logLikelihood = calculateLogLikelihood(t, bearing);
+			bearings.add(bearing);
+			logLikelihoods.add(logLikelihood);
+			add(logWeight, logLikelihood, 1);
 		}
-		Profiler.stopAndStart("Closest stronghold conditioning");
-		if (Main.preferences.useAdvStatistics.get())
-			closestStrongholdCondition(eyeThrows.get(0), 0.001);
+		Profiler.stop();
+		calculateWeights();
 		Profiler.stop();
 		Profiler.print();
 	}
-
 	
-	public void condition(IThrow t) {
-		// Update weights
-		chunks.forEach((chunk) -> updateConditionalProbability(chunk, t));
-		// Normalize
-		double weightSum = 0.0;
-		for (Chunk chunk : chunks) {
-			weightSum += chunk.weight;
+	/**
+	 * Creates a posterior that is conditioned on the given throws, reusing the work that has already been
+	 * done for the previous posterior. The log-likelihoods of throws that are not in the previous
+	 * posterior are calculated, and the log-likelihoods of throws that are no longer present are subtracted.
+	 */
+	private Posterior(Posterior previous, List<IThrow> eyeThrows) {
+		Profiler.clear();
+		Profiler.start("Update posterior");
+		stds = previous.stds;
+		divineContext = previous.divineContext;
+		this.eyeThrows = new ArrayList<IThrow>(eyeThrows);
+		logLikelihoods = new ArrayList<double[]>();
+		bearings = new ArrayList<double[]>();
+		useAdvStatistics = previous.useAdvStatistics;
+		strongholdChunkCoord = previous.strongholdChunkCoord;
+		pruningEpsilon = previous.pruningEpsilon;
+		densityTier = previous.densityTier;
+		Profiler.start("Restrict support");
+		// Chunks outside the cones of the new throws can be dropped
+		supportThrows = new ArrayList<IThrow>(previous.supportThrows);
+		List<Cone> cones = new ArrayList<Cone>();
+		for (IThrow t : eyeThrows) {
+			Cone cone = previous.eyeThrows.contains(t) ? null : getCone(t);
+			if (cone != null) {
+				cones.add(cone);
+				supportThrows.add(t);
+			}
+		}
+		int[] support = previous.getSupport(cones);
+		size = support == null ? previous.size : support.length;
+		x = restrict(previous.x, support);
+		z = restrict(previous.z, support);
+		logPrior = restrict(previous.logPrior, support);
+		closestStrongholdProbabilities = restrict(previous.closestStrongholdProbabilities, support);
+		List<double[]> previousBearings = new ArrayList<double[]>();
+		List<double[]> previousLogLikelihoods = new ArrayList<double[]>();
+		for (int i = 0; i < previous.eyeThrows.size(); i++) {
+			previousBearings.add(restrict(previous.bearings.get(i), support));
+			previousLogLikelihoods.add(restrict(previous.logLikelihoods.get(i), support));
+		}
+		Profiler.stopAndStart("Measurement error conditioning");
+		List<double[]> added = new ArrayList<double[]>();
+		for (IThrow t : eyeThrows) {
+			int i = previous.eyeThrows.indexOf(t);
+			if (i != -1) {
+				bearings.add(previousBearings.get(i));
+				logLikelihoods.add(previousLogLikelihoods.get(i));
+			} else {
+				double[] bearing = getBearings(t, previous.eyeThrows, previousBearings);
+				double[] logLikelihood = calculateLogLikelihood(t, bearing);
+				bearings.add(bearing);
+				logLikelihoods.add(logLikelihood);
+				added.add(logLikelihood);
+			}
+		}
+		List<double[]> removed = new ArrayList<double[]>();
+		for (int i = 0; i < previous.eyeThrows.size(); i++) {
+			if (!eyeThrows.contains(previous.eyeThrows.get(i)))
+				removed.add(previousLogLikelihoods.get(i));
+		}
+		if (added.size() + removed.size() < eyeThrows.size()) {
+			// Update the previous sum
+			logWeight = support == null ? Arrays.copyOf(previous.logWeight, size) : restrict(previous.logWeight, support);
+			for (double[] logLikelihood : removed) {
+				add(logWeight, logLikelihood, -1);
+			}
+			for (double[] logLikelihood : added) {
+				add(logWeight, logLikelihood, 1);
+			}
+		} else {
+			// Cheaper to sum all log-likelihoods again
+			logWeight = Arrays.copyOf(logPrior, size);
+			for (double[] logLikelihood : logLikelihoods) {
+				add(logWeight, logLikelihood, 1);
+			}
+		}
+		Profiler.stop();
+		calculateWeights();
+		Profiler.stop();
+		Profiler.print();
+	}
+	
+	/**
+	 * Returns true if this posterior can be updated to the given throws with withThrows(...), i.e. if the
+	 * first throw (which determines the prior) and the settings are the same, and no throws that chunks have
+	 * been dropped for have been removed (or any throws changed, if tiles have been dropped).
+	 */
+	public boolean canBeUpdatedTo(List<IThrow> eyeThrows, DivineContext divineContext, StdSettings stds, double pruningEpsilon, ApproximatedDensity.Tier densityTier) {
+		if (eyeThrows.isEmpty() || eyeThrows.get(0) != this.eyeThrows.get(0))
+			return false;
+		if (tileRestricted && !eyeThrows.equals(this.eyeThrows))
+			return false;
+		if (!eyeThrows.containsAll(supportThrows))
+			return false;
+		if (divineContext != this.divineContext || !this.stds.equals(stds) || pruningEpsilon != this.pruningEpsilon || densityTier != this.densityTier)
+			return false;
+		return useAdvStatistics == Main.preferences.useAdvStatistics.get() && strongholdChunkCoord == StrongholdConstants.getStrongholdChunkCoord();
+	}
+	
+	/**
+	 * Returns a posterior that is conditioned on the given throws (see canBeUpdatedTo(...)). Only throws that
+	 * have been added, removed or replaced since this posterior was calculated have to be processed.
+	 */
+	public Posterior withThrows(List<IThrow> eyeThrows) {
+		if (eyeThrows.equals(this.eyeThrows))
+			return this;
+		return new Posterior(unpruned != null ? unpruned : this, eyeThrows);
+	}
+	
+	/**
+	 * Returns the cone that contains all chunks whose likelihood given the throw does not underflow (see
+	 * MAX_ERROR_STDS), or null if the throw is too imprecise to rule out any chunks.
+	 */
+	private Cone getCone(IThrow t) {
+		double tolerance = MAX_ERROR_STDS * t.getStd(stds) / 180.0 * Math.PI;
+		if (tolerance >= Math.PI / 2)
+			return null;
+		return new Cone(t, tolerance, strongholdChunkCoord);
+	}
+	
+	/**
+	 * Returns the indices of the chunks in the TILE_SIZE x TILE_SIZE tiles that can have a non-negligible
+	 * probability, or null if no tiles are negligible. The likelihood of each throw is bounded over a tile
+	 * using the bearing to the center of the tile and the angular radius of the tile, so only one bearing per
+	 * throw and tile has to be calculated. A tile is negligible if its upper bound is below pruningEpsilon
+	 * times a lower bound of the total probability, divided by the number of tiles.
+	 * 
+	 * There is only one level of tiles. The prior that this is applied to only covers the chunks within a
+	 * degree of the first throw that are inside the cones of the other throws, which is at most about two
+	 * thousand chunks (a hundred tiles). Coarser levels would bound more tiles than they rule out.
+	 */
+	private int[] getTileSupport() {
+		Map<Long, Tile> tiles = new LinkedHashMap<Long, Tile>();
+		for (int i = 0; i < size; i++) {
+			if (logPrior[i] == Double.NEGATIVE_INFINITY)
+				continue;
+			int tx = Math.floorDiv(x[i], TILE_SIZE);
+			int tz = Math.floorDiv(z[i], TILE_SIZE);
+			tiles.computeIfAbsent(((long) tx << 32) | (tz & 0xffffffffL), key -> new Tile(tx, tz)).add(i, Math.exp(logPrior[i]));
+		}
+		double tileRadius = (TILE_SIZE - 1) / 2.0 * Math.sqrt(2) * 16;
+		double logTotalLowerBound = Double.NEGATIVE_INFINITY;
+		for (Tile tile : tiles.values()) {
+			double centerX = (tile.tx * TILE_SIZE + (TILE_SIZE - 1) / 2.0) * 16 + strongholdChunkCoord;
+			double centerZ = (tile.tz * TILE_SIZE + (TILE_SIZE - 1) / 2.0) * 16 + strongholdChunkCoord;
+			double upper = Math.log(tile.priorMass);
+			double lower = Math.log(tile.maxPrior);
+			for (IThrow t : eyeThrows) {
+				double deltax = centerX - t.x();
+				double deltaz = centerZ - t.z();
+				double dist = Math.sqrt(deltax * deltax + deltaz * deltaz);
+				double angularRadius = dist > tileRadius ? Math.toDegrees(Math.asin(tileRadius / dist)) : 180;
+				double delta = Math.abs((-180 / Math.PI * Math.atan2(deltax, deltaz) - t.alpha()) % 360.0);
+				delta = Math.min(delta, 360.0 - delta);
+				double s = t.getStd(stds);
+				double c = -1.0 / (2 * s * s);
+				double minDelta = Math.max(0, delta - angularRadius);
+				double maxDelta = Math.min(180, delta + angularRadius);
+				upper += c * minDelta * minDelta;
+				lower += c * maxDelta * maxDelta;
+			}
+			tile.logUpperBound = upper;
+			logTotalLowerBound = Math.max(logTotalLowerBound, lower);
+		}
+		double threshold = logTotalLowerBound + Math.log(pruningEpsilon / tiles.size());
+		int[] support = new int[size];
+		int n = 0;
+		for (Tile tile : tiles.values()) {
+			if (tile.logUpperBound >= threshold) {
+				for (int k = 0; k < tile.count; k++) {
+					support[n++] = tile.indices[k];
+				}
+			} else {
+				discardedMass += Math.exp(tile.logUpperBound - logTotalLowerBound);
+			}
+		}
+		if (n == size)
+			return null;
+		support = Arrays.copyOf(support, n);
+		Arrays.sort(support);
+		return support;
+	}
+	
+	private static class Tile {
+		final int tx, tz;
+		final int[] indices = new int[TILE_SIZE * TILE_SIZE];
+		int count;
+		double priorMass;
+		double maxPrior;
+		double logUpperBound;
+		
+		Tile(int tx, int tz) {
+			this.tx = tx;
+			this.tz = tz;
+		}
+		
+		void add(int i, double prior) {
+			indices[count++] = i;
+			priorMass += prior;
+			maxPrior = Math.max(maxPrior, prior);
+		}
+	}
+	
+	/**
+	 * Returns the indices of the chunks that are inside all of the given cones, or null if all chunks are.
+	 */
+	private int[] getSupport(List<Cone> cones) {
+		if (cones.isEmpty())
+			return null;
+		int[] support = new int[size];
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			boolean inside = true;
+			for (Cone cone : cones) {
+				inside &= cone.contains(x[i], z[i]);
+			}
+			if (inside)
+				support[n++] = i;
+		}
+		return n == size ? null : Arrays.copyOf(support, n);
+	}
+	
+	private static int[] restrict(int[] a, int[] support) {
+		if (support == null)
+			return a;
+		int[] restricted = new int[support.length];
+		for (int i = 0; i < support.length; i++) {
+			restricted[i] = a[support[i]];
+		}
+		return restricted;
+	}
+	
+	private static double[] restrict(double[] a, int[] support) {
+		if (support == null)
+			return a;
+		double[] restricted = new double[support.length];
+		for (int i = 0; i < support.length; i++) {
+			restricted[i] = a[support[i]];
+		}
+		return restricted;
+	}
+	
+	/**
+	 * Returns the bearings from the position of the given throw to every chunk, reusing the bearings of
+	 * a throw from the same position in this posterior or in the given throws (which have bearings to the
+	 * same chunks) if there is one.
+	 */
+	private double[] getBearings(IThrow t, List<IThrow> otherThrows, List<double[]> otherBearings) {
+		for (int i = 0; i < bearings.size(); i++) {
+			IThrow t2 = eyeThrows.get(i);
+			if (t2.x() == t.x() && t2.z() == t.z())
+				return bearings.get(i);
+		}
+		for (int i = 0; i < otherBearings.size(); i++) {
+			IThrow t2 = otherThrows.get(i);
+			if (t2.x() == t.x() && t2.z() == t.z())
+				return otherBearings.get(i);
+		}
+		double[] bearing = new double[size];
+		double tx = t.x();
+		double tz = t.z();
+		ParallelRange.forEach(size, (start, end) -> {
+			for (int i = start; i < end; i++) {
+				double deltax = x[i] * 16 + strongholdChunkCoord - tx;
+				double deltaz = z[i] * 16 + strongholdChunkCoord - tz;
+				bearing[i] = -180 / Math.PI * Math.atan2(deltax, deltaz); // mod 360 necessary?
+			}
+		});
+		return bearing;
+	}
+	
+	private double[] calculateLogLikelihood(IThrow t, double[] bearing) {
+		double alpha = t.alpha();
+		double s = t.getStd(stds);
+		double c = -1.0 / (2 * s * s);
+		double[] logLikelihood = new double[size];
+		ParallelRange.forEach(size, (start, end) -> {
+			for (int i = start; i < end; i++) {
+				double delta = Math.abs((bearing[i] - alpha) % 360.0);
+				delta = Math.min(delta, 360.0 - delta);
+				logLikelihood[i] = c * delta * delta;
+			}
+		});
+		return logLikelihood;
+	}
+	
+	private void add(double[] sum, double[] term, int sign) {
+		ParallelRange.forEach(size, (start, end) -> {
+			for (int i = start; i < end; i++) {
+				sum[i] += sign * term[i];
+			}
+		});
+	}
+	
+	/**
+	 * Calculates the final weights from the log weights, normalizing them using the log-sum-exp trick
+	 * to avoid underflow when the throws are very precise.
+	 */
+	private void calculateWeights() {
+		Profiler.start("Normalize");
+		double maxLogWeight = ParallelRange.max(size, (start, end) -> {
+			double max = Double.NEGATIVE_INFINITY;
+			for (int i = start; i < end; i++) {
+				if (logWeight[i] > max)
+					max = logWeight[i];
+			}
+			return max;
+		});
+		weight = new double[size];
+		// No chunks are left if the cones do not intersect, and none can contain a stronghold if they only
+		// intersect out of range
+		boolean empty = maxLogWeight == Double.NEGATIVE_INFINITY;
+		if (!empty) {
+			ParallelRange.forEach(size, (start, end) -> {
+				for (int i = start; i < end; i++) {
+					weight[i] = Math.exp(logWeight[i] - maxLogWeight);
+				}
+			});
+			normalize(weight);
+		}
+		Profiler.stop();
+		if (empty || !isConsistent()) {
+			// One of the eyes has most likely been misread, leave all weights at 0 so that the result is unsuccessful
+			Arrays.fill(weight, 0);
+			topIndices = selectTop(NUM_TOP_CHUNKS);
+			closestStrongholdConditioned = true;
+			return;
+		}
+		Profiler.start("Drop negligible chunks");
+		prune();
+		Profiler.stopAndStart("Select top chunks");
+		topIndices = selectTop(NUM_TOP_CHUNKS);
+		Profiler.stop();
+		closestStrongholdConditioned = !useAdvStatistics;
+	}
+	
+	/**
+	 * Conditions the weights on the stronghold being the closest one to the player, which is only done if
+	 * advanced statistics are enabled. This is the most expensive step, so it is not done by the constructors,
+	 * which allows showing a preliminary result before it is done.
+	 * 
+	 * Returns false, leaving the weights unchanged, if the conditioning could not be finished before the given
+	 * deadline (in System.nanoTime() time). The closest stronghold probabilities that were calculated before the
+	 * deadline are kept, so trying again is faster.
+	 */
+	public boolean conditionOnClosestStronghold(long deadline) {
+		return conditionOnClosestStronghold(deadline, () -> false);
+	}
+	
+	/**
+	 * Like conditionOnClosestStronghold(deadline), but also stops (returning false) when cancelled becomes true.
+	 */
+	public boolean conditionOnClosestStronghold(long deadline, BooleanSupplier cancelled) {
+		if (closestStrongholdConditioned)
+			return true;
+		Profiler.clear();
+		Profiler.start("Closest stronghold conditioning");
+		boolean finished = closestStrongholdCondition(eyeThrows.get(0), 0.001, deadline, cancelled);
+		if (finished) {
+			Profiler.stopAndStart("Select top chunks");
+			topIndices = selectTop(NUM_TOP_CHUNKS);
+			closestStrongholdConditioned = true;
+		}
+		Profiler.stop();
+		Profiler.print();
+		return finished;
+	}
+	
+	public boolean isClosestStrongholdConditioned() {
+		return closestStrongholdConditioned;
+	}
+	
+	/**
+	 * Returns false if the weights of all chunks would underflow to 0 without logarithms, i.e. when the throws
+	 * are multiplied into the prior one at a time and the weights are normalized after each throw. This is
+	 * what used to make results unsuccessful, and it happens when one of the eyes has been misread.
+	 */
+	private boolean isConsistent() {
+		// Normalizing never makes a weight smaller, because the weights sum to at most 1 before each throw (the
+		// prior sums to far less than 1 along a ray), so one chunk whose product does not underflow is enough
+		for (int i = 0; i < size; i++) {
+			if (logWeight[i] < LOG_UNDERFLOW)
+				continue;
+			boolean underflows = false;
+			for (double[] logLikelihood : logLikelihoods) {
+				underflows |= logLikelihood[i] < LOG_UNDERFLOW;
+			}
+			if (!underflows)
+				return true;
+		}
+		// Otherwise it depends on the sums that the weights were normalized by, which include chunks outside the
+		// cones of the later throws, so the weights are calculated the way they used to be
+		IThrow t0 = eyeThrows.get(0);
+		RayApproximatedPrior prior = new RayApproximatedPrior(t0, getPriorTolerance(t0), divineContext, Collections.emptyList(), densityTier);
+		double maxDist = StrongholdConstants.getMaxDistance(t0.x(), t0.z()) / 16.0;
+		double[] w = new double[prior.size];
+		for (int i = 0; i < prior.size; i++) {
+			double dx = prior.x[i] - t0.x() / 16.0;
+			double dz = prior.z[i] - t0.z() / 16.0;
+			w[i] = dx * dx + dz * dz > maxDist * maxDist ? 0 : prior.weight[i];
+		}
+		for (IThrow t : eyeThrows) {
+			double s = t.getStd(stds);
+			double sum = 0;
+			for (int i = 0; i < prior.size; i++) {
+				double deltax = prior.x[i] * 16 + strongholdChunkCoord - t.x();
+				double deltaz = prior.z[i] * 16 + strongholdChunkCoord - t.z();
+				double delta = Math.abs((-180 / Math.PI * Math.atan2(deltax, deltaz) - t.alpha()) % 360.0);
+				delta = Math.min(delta, 360.0 - delta);
+				w[i] *= Math.exp(-delta * delta / (2 * s * s));
+				sum += w[i];
+			}
+			if (sum == 0)
+				return false;
+			for (int i = 0; i < prior.size; i++) {
+				w[i] /= sum;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the angle (in radians) around the first throw that the prior is calculated in.
+	 */
+	private double getPriorTolerance(IThrow t0) {
+		return Math.min(1.0, 30 * t0.getStd(stds)) / 180.0 * Math.PI;
+	}
+	
+	/**
+	 * Creates a shallow copy of the given posterior, which refers to the same arrays.
+	 */
+	private Posterior(Posterior p) {
+		stds = p.stds;
+		divineContext = p.divineContext;
+		eyeThrows = p.eyeThrows;
+		useAdvStatistics = p.useAdvStatistics;
+		strongholdChunkCoord = p.strongholdChunkCoord;
+		size = p.size;
+		x = p.x;
+		z = p.z;
+		logPrior = p.logPrior;
+		logLikelihoods = new ArrayList<double[]>(p.logLikelihoods);
+		bearings = new ArrayList<double[]>(p.bearings);
+		logWeight = p.logWeight;
+		weight = p.weight;
+		closestStrongholdProbabilities = p.closestStrongholdProbabilities;
+		supportThrows = p.supportThrows;
+		pruningEpsilon = p.pruningEpsilon;
+		densityTier = p.densityTier;
+		discardedMass = p.discardedMass;
+		tileRestricted = p.tileRestricted;
+	}
+	
+	/**
+	 * Drops the least probable chunks as long as their total probability is below pruningEpsilon, so that
+	 * the following steps only have to consider the plausible chunks.
+	 */
+	private void prune() {
+		if (pruningEpsilon <= 0)
+			return;
+		int[] indices = TopK.range(size);
+		int n = TopK.selectByTailMass(indices, weight, pruningEpsilon, 1);
+		if (n == size)
+			return;
+		double dropped = 0;
+		for (int i = n; i < size; i++) {
+			dropped += weight[indices[i]];
+		}
+		int[] kept = Arrays.copyOf(indices, n);
+		Arrays.sort(kept);
+		unpruned = new Posterior(this);
+		unprunedIndices = kept;
+		size = n;
+		x = restrict(x, kept);
+		z = restrict(z, kept);
+		logPrior = restrict(logPrior, kept);
+		logWeight = restrict(logWeight, kept);
+		weight = restrict(weight, kept);
+		for (int i = 0; i < eyeThrows.size(); i++) {
+			bearings.set(i, restrict(bearings.get(i), kept));
+			logLikelihoods.set(i, restrict(logLikelihoods.get(i), kept));
 		}
-		final double totalWeight = weightSum;
-		chunks.forEach((chunk) -> chunk.weight /= totalWeight);
+		discardedMass += dropped;
+	}
+	
+	/**
+	 * Returns the approximate total probability of the chunks that have been dropped because they were
+	 * negligible. The weights of the remaining chunks sum to 1 minus this.
+	 */
+	public double getDiscardedMass() {
+		return discardedMass;
+	}
+	
+	private void normalize(double[] w) {
+		double weightSum = ParallelRange.sum(size, (start, end) -> ParallelRange.kahanSum(w, start, end));
+		if (weightSum == 0)
+			return;
+		double remainingMass = 1 - discardedMass;
+		ParallelRange.forEach(size, (start, end) -> {
+			for (int i = start; i < end; i++) {
+				w[i] = w[i] / weightSum * remainingMass;
+			}
+		});
 	}
 	
 	/**
@@ -76,93 +671,180 @@ public class Posterior {
 	 * with probability greater than the given tolerance.
 	 */
 	public Chunk getClosestPossibleChunk(double tolerance, IThrow position) {
-		Chunk closest = null;
-		double minDist = Double.POSITIVE_INFINITY;
-		for (Chunk c : chunks) {
-			if (c.weight > tolerance) {
-				double dist = c.getDistance(position);
-				if (dist < minDist) {
-					minDist = dist;
-					closest = c;
+		double px = position.x();
+		double pz = position.z();
+		if (position.isNether()) {
+			px *= 8;
+			pz *= 8;
+		}
+		px -= StrongholdConstants.getStrongholdChunkCoord();
+		pz -= StrongholdConstants.getStrongholdChunkCoord();
+		int closest = -1;
+		double minDist2 = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < size; i++) {
+			if (weight[i] > tolerance) {
+				double dx = 16 * x[i] - px;
+				double dz = 16 * z[i] - pz;
+				double dist2 = dx * dx + dz * dz;
+				if (dist2 < minDist2) {
+					minDist2 = dist2;
+					closest = i;
 				}
 			}
 		}
-		return closest;
+		return closest == -1 ? null : getChunk(closest);
 	}
 	
 	public Chunk getMostProbableChunk() {
-		Optional<Chunk> prediction = getChunks().stream().max(Comparator.comparingDouble((chunk) -> chunk.weight));
-		try {
-			return prediction.get();
-		} catch (Exception e) {
+		return getMostProbableChunk(topIndices.length == 0 ? -1 : topIndices[0]);
+	}
+	
+	private Chunk getMostProbableChunk(int best) {
+		if (best == -1)
 			return new Chunk(0, 0);
+		return getChunk(best);
+	}
+	
+	/**
+	 * Returns the chunks with the largest posterior probability, in descending order. The NUM_TOP_CHUNKS
+	 * most probable chunks are selected once, more than that are selected again on every call.
+	 */
+	public List<Chunk> getTopChunks(int amount) {
+		int[] top = amount <= topIndices.length || topIndices.length == size ? topIndices : selectTop(amount);
+		List<Chunk> topChunks = new ArrayList<Chunk>(amount);
+		for (int i = 0; i < top.length && i < amount; i++) {
+			topChunks.add(getChunk(top[i]));
 		}
+		return topChunks;
 	}
 	
-	private void updateConditionalProbability(Chunk chunk, IThrow t) {
-		double deltax = chunk.x * 16 + StrongholdConstants.getStrongholdChunkCoord() - t.x();
-		double deltaz = chunk.z * 16 + StrongholdConstants.getStrongholdChunkCoord() - t.z();
-		double gamma = -180 / Math.PI * Math.atan2(deltax, deltaz); // mod 360 necessary?
-		double delta = Math.abs((gamma - t.alpha()) % 360.0);
-		delta = Math.min(delta, 360.0 - delta);
-		double s = t.getStd(stds);
-		chunk.weight *= Math.exp(-delta * delta / (2 * s * s));
+	/**
+	 * Creates a Chunk object for the chunk stored at the given index.
+	 */
+	Chunk getChunk(int i) {
+		return new Chunk(x[i], z[i], weight[i]);
 	}
 	
-	public List<Chunk> getChunks() {
-		return chunks;
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the indices of the (at most) amount chunks with the largest weights, in descending order.
+	 */
+	private int[] selectTop(int amount) {
+		int[] indices = TopK.range(size);
+		TopK.select(indices, weight, amount);
+		return Arrays.copyOf(indices, Math.min(amount, size));
 	}
 	
 	/**
 	 * Conditions all chunk weights on the fact that the stronghold is closer than any other stronghold.
-	 * This action is relatively costly, and is approximated for all chunks below the given threshold.
+	 * This action is relatively costly, and is approximated for all chunks below the given threshold, by
+	 * looking up ClosestStrongholdTable if it is applicable.
+	 * Returns false without changing the weights if the deadline passed or the calculation was cancelled.
 	 * @param probabilityTheshold
 	 */
-	private void closestStrongholdCondition(IThrow t, double probabilityTheshold) {
+	private boolean closestStrongholdCondition(IThrow t, double probabilityTheshold, long deadline, BooleanSupplier cancelled) {
 		// Update weights
-//		chunks.forEach((chunk) -> closestStrongholdCondition(chunk, t));
-		Profiler.start("Sort chunks");
-		chunks.sort((c1, c2) -> -Double.compare(c1.weight, c2.weight));
-		double totalClosestStrongholdProbability = 0;
-		int samples = 0;
+		Profiler.start("Select chunks");
+		// The 100 most likely chunks and all chunks above the threshold are conditioned exactly
+		int numAboveThreshold = 0;
+		for (int i = 0; i < size; i++) {
+			if (weight[i] > probabilityTheshold)
+				numAboveThreshold++;
+		}
+		int numExact = Math.max(Math.min(100, size), numAboveThreshold);
+		int[] sorted = TopK.range(size);
+		TopK.select(sorted, weight, numExact);
 		Profiler.stopAndStart("Calculate closest stronghold probability");
-		for (int i = 0; i < chunks.size(); i++) {
-			Chunk c = chunks.get(i);
-			if (i < 100 || c.weight > probabilityTheshold) {
-				double a = closestStrongholdCondition(c, t);
-				totalClosestStrongholdProbability += a;
-				samples++;
-			} else {
-				c.weight *= totalClosestStrongholdProbability/samples; // Approximation, no need to be precise for chunks that dont matter
+		double[] probabilities = new double[numExact];
+		AtomicBoolean timedOut = new AtomicBoolean(false);
+		ParallelRange.forEach(numExact, CLOSEST_STRONGHOLD_BLOCK_SIZE, (start, end) -> {
+			if (timedOut.get() || System.nanoTime() > deadline || cancelled.getAsBoolean()) {
+				timedOut.set(true);
+				return;
 			}
+			for (int i = start; i < end; i++) {
+				int idx = sorted[i];
+				int memoIdx = unprunedIndices == null ? idx : unprunedIndices[idx];
+				if (Double.isNaN(closestStrongholdProbabilities[memoIdx]))
+					closestStrongholdProbabilities[memoIdx] = closestStrongholdProbability(idx, t);
+				probabilities[i] = closestStrongholdProbabilities[memoIdx];
+			}
+		});
+		if (timedOut.get()) {
+			Profiler.stop();
+			return false;
+		}
+		double[] conditioned = new double[size];
+		for (int i = 0; i < numExact; i++) {
+			conditioned[sorted[i]] = weight[sorted[i]] * probabilities[i];
+		}
+		// Approximation, no need to be precise for chunks that dont matter
+		final int first = numExact;
+		double r_p = Math.sqrt(t.x() * t.x() + t.z() * t.z()) / 16.0;
+		ClosestStrongholdTable table = ClosestStrongholdTable.get();
+		if (table != null && table.isApplicable(r_p, densityTier)) {
+			Profiler.stopAndStart("Look up closest stronghold probability");
+			double phi_p = Coords.getPhi(t.x(), t.z());
+			ParallelRange.forEach(size - first, (start, end) -> {
+				for (int i = first + start; i < first + end; i++) {
+					int idx = sorted[i];
+					conditioned[idx] = weight[idx] * table.get(x[idx], z[idx], r_p, phi_p, strongholdChunkCoord);
+				}
+			});
+		} else {
+			double averageClosestStrongholdProbability = ParallelRange.kahanSum(probabilities, 0, numExact) / numExact;
+			ParallelRange.forEach(size - first, (start, end) -> {
+				for (int i = first + start; i < first + end; i++) {
+					conditioned[sorted[i]] = weight[sorted[i]] * averageClosestStrongholdProbability;
+				}
+			});
 		}
 		Profiler.stopAndStart("Normalize");
-		// Normalize
-		double weightSum = 0.0;
-		for (Chunk chunk : chunks) {
-			weightSum += chunk.weight;
+		// If the conditioned weights are all 0 (or underflow) they cannot be normalized, and the unconditioned
+		// weights are kept instead of reporting that no chunk is possible
+		if (ParallelRange.sum(size, (start, end) -> ParallelRange.kahanSum(conditioned, start, end)) > 0) {
+			normalize(conditioned);
+			weight = conditioned;
 		}
-		final double totalWeight = weightSum;
-		chunks.forEach((chunk) -> chunk.weight /= totalWeight);
 		Profiler.stop();
+		return true;
 	}
 	
-	int K = 7;
-	private double closestStrongholdCondition(Chunk chunk, IThrow t) {
-		double closestStrongholdProbability = 1;
-		double deltax = chunk.x + (StrongholdConstants.getStrongholdChunkCoord() - t.x())/16.0;
-		double deltaz = chunk.z + (StrongholdConstants.getStrongholdChunkCoord() - t.z())/16.0;
-		double r_p = Math.sqrt(t.x() * t.x() + t.z() * t.z())/16.0;
+	private double closestStrongholdProbability(int idx, IThrow t) {
+		return closestStrongholdProbability(x[idx], z[idx], t.x(), t.z(), strongholdChunkCoord, densityTier);
+	}
+	
+	/**
+	 * Returns the probability that the stronghold in chunk (cx, cz) is closer to a player at (px, pz) (in
+	 * blocks) than any other stronghold.
+	 */
+	static double closestStrongholdProbability(int cx, int cz, double px, double pz, int strongholdChunkCoord, ApproximatedDensity.Tier densityTier) {
+		double deltax = cx + (strongholdChunkCoord - px)/16.0;
+		double deltaz = cz + (strongholdChunkCoord - pz)/16.0;
+		double r_p = Math.sqrt(px * px + pz * pz)/16.0;
 		double d_i = Math.sqrt(deltax * deltax + deltaz * deltaz);
-		double phi_prime = Coords.getPhi(chunk.x, chunk.z);
-		double phi_p = Coords.getPhi(t.x(), t.z());
-		double maxDist = StrongholdConstants.getMaxDistance(t.x(), t.z()) / 16.0;
-		double stronghold_r_min = r_p - maxDist;
-		double stronghold_r_max = r_p + maxDist;
-		Ring ring_chunk = Ring.get(Math.sqrt(chunk.x * chunk.x + chunk.z * chunk.z));
+		double phi_prime = Coords.getPhi(cx, cz);
+		double phi_p = Coords.getPhi(px, pz);
+		return closestStrongholdProbability(Ring.get(Math.sqrt(cx * cx + cz * cz)), r_p, phi_p, phi_prime, d_i, densityTier);
+	}
+	
+	static final int K = 7;
+	/**
+	 * Returns the probability that the stronghold in a chunk of the given ring is closer to the player than any
+	 * other stronghold. r_p and phi_p are the polar coordinates of the player, phi_prime is the angle of the
+	 * chunk and d_i is the distance from the player to the stronghold in the chunk (in chunks).
+	 */
+	static double closestStrongholdProbability(Ring ring_chunk, double r_p, double phi_p, double phi_prime, double d_i, ApproximatedDensity.Tier densityTier) {
 		if (ring_chunk == null) {
 			return 0;
 		}
+		double closestStrongholdProbability = 1;
+		double maxDist = StrongholdConstants.getMaxDistance(r_p * 16.0, 0) / 16.0;
+		double stronghold_r_min = r_p - maxDist;
+		double stronghold_r_max = r_p + maxDist;
 		for (int i = 0; i < StrongholdConstants.numRings; i++) {
 			Ring ring = Ring.get(i);
 			if (stronghold_r_max < ring.innerRadius || stronghold_r_min > ring.outerRadius)
@@ -174,15 +856,13 @@ public class Posterior {
 				if (sameRing && l == 0) {
 					continue;
 				}
-				double integral = integral(ring, l, phi_prime, dphi,phi_p, r_p, d_i, sameRing);
-				closestStrongholdProbability *= 1.0 - integral;
+				closestStrongholdProbability *= 1.0 - integral(ring, l, phi_prime, dphi, phi_p, r_p, d_i, sameRing, densityTier);
 			}
 		}
-		chunk.weight *= closestStrongholdProbability;
 		return closestStrongholdProbability;
 	}
 	
-	private double integral(Ring ring, int l, double phi_prime, double dphi, double phi_p, double r_p, double d_i, boolean sameRingAsChunk) {
+	private static double integral(Ring ring, int l, double phi_prime, double dphi, double phi_p, double r_p, double d_i, boolean sameRingAsChunk, ApproximatedDensity.Tier densityTier) {
 		double phi_prime_l_mu = phi_prime + (l * 2 * Math.PI / ring.numStrongholds);
 		double pdfint = 0;
 		double integral = 0;
@@ -202,8 +882,10 @@ public class Posterior {
 				double beta = Math.asin(sin_beta);
 				double alpha0 = beta - gamma;
 				double alpha1 = Math.PI - gamma - beta;
-				double R0 = d_i * Math.sin(alpha0) / Math.sin(gamma);
-				double R1 = d_i * Math.sin(alpha1) / Math.sin(gamma);
+				double sin_gamma = Math.sin(gamma);
+				// Limit as gamma -> 0, when the stronghold is in the same direction as the player
+				double R0 = sin_gamma != 0 ? d_i * Math.sin(alpha0) / sin_gamma : r_p - d_i;
+				double R1 = sin_gamma != 0 ? d_i * Math.sin(alpha1) / sin_gamma : r_p + d_i;
 				if (R1 > ring.outerRadiusPostSnapping)
 					R1 = ring.outerRadiusPostSnapping;
 				if (R0 < ring.innerRadiusPostSnapping)
@@ -212,7 +894,7 @@ public class Posterior {
 					R0 = ring.outerRadiusPostSnapping;
 				if (R1 < ring.innerRadiusPostSnapping)
 					R1 = ring.innerRadiusPostSnapping;
-				integral += pdf * (ApproximatedDensity.cumulativePolar(R1) - ApproximatedDensity.cumulativePolar(R0)) * dphi / ring.numStrongholds;
+				integral += pdf * (densityTier.cumulativePolar(R1) - densityTier.cumulativePolar(R0)) * dphi / ring.numStrongholds;
 			} // else integrand is 0
 		}
 		integral /= pdfint;
@@ -1,7 +1,7 @@
 package ninjabrainbot.calculator;
 
+import java.util.AbstractList;
 import java.util.Arrays;
-import java.util.HashMap;
 
 import ninjabrainbot.util.Coords;
 
@@ -10,33 +10,45 @@ public class Prior implements IPrior {
 	int size1d;
 	int radius;
 	int x0, z0, x1, z1;
-	Chunk[] chunks;
+	// Weights of the chunks in the square domain, indexed by idx(i, j). Chunk objects are only created on demand by getChunks()
+	double[] weights;
 	DivineContext divineContext;
 	
+	// Largest difference between the world prior and the brute force prior (see main(...)), relative to the
+	// largest weight
+	private static final double CHECK_TOLERANCE = 1e-12;
+	
 	public Prior() {
 		this(0, 0, StrongholdConstants.maxChunk, null);
 	}
 	
 	public Prior(int centerX, int centerZ, int radius, DivineContext divineContext) {
-		long t0 = System.currentTimeMillis();
 		this.divineContext = divineContext;
+		construct(centerX, centerZ, radius);
+	}
+	
+	/**
+	 * For subclasses that have to initialize their own fields before calling construct(...).
+	 */
+	protected Prior(DivineContext divineContext) {
+		this.divineContext = divineContext;
+	}
+	
+	protected void construct(int centerX, int centerZ, int radius) {
+		long t0 = System.currentTimeMillis();
 		setInitialSize(centerX, centerZ, radius);
-		chunks = new Chunk[size1d * size1d];
-		for (int i = x0; i <= x1; i++) {
-			for (int j = z0; j <= z1; j++) {
-				int idx = idx(i, j);
-				chunks[idx] = new Chunk(i, j);
-			}
-		}
+		weights = new double[size1d * size1d];
 		setInitialWeights();
 		smoothWeights();
 		System.out.println("Time to construct prior: " + (System.currentTimeMillis() - t0)/1000f + " seconds.");
 	}
 	
 	/**
-	 * Calculates weights (prior probabilities) for all chunks in the domain.
+	 * Calculates weights (prior probabilities) for all chunks in the domain. If the domain has octant
+	 * symmetry, only the octant 0 <= i <= j is calculated and then mirrored to the rest of the domain.
 	 */
 	protected void setInitialWeights() {
+		boolean octant = hasOctantSymmetry();
 		RingIterator ringIterator = new RingIterator();
 		for (Ring ring : ringIterator) {
 			int c0 = (int) ring.innerRadius - margin();
@@ -46,8 +58,10 @@ public class Prior implements IPrior {
 			int zStart = (-c1 > z0 ? -c1 : z0);
 			int zEnd = (c1 < z1 ? c1 : z1);
 			int innerThreshold = (int) ((c0 - 1)/Math.sqrt(2)) - 10;
+			if (octant)
+				xStart = Math.max(xStart, 0);
 			for (int i = xStart; i <= xEnd; i++) {
-				for (int j = zStart; j <= zEnd; j++) {
+				for (int j = octant ? Math.max(zStart, i) : zStart; j <= zEnd; j++) {
 					// Skip ahead if inside inner part of ring
 					if (j > -innerThreshold + 1 && j < innerThreshold - 1) {
 						if (i < innerThreshold && i > -innerThreshold) {
@@ -72,62 +86,92 @@ public class Prior implements IPrior {
 						}
 					}
 					weight /= (double) n * n; // Approximate percentage of chunk thats inside the ring
-					chunks[idx(i, j)].weight += weight;
+					weights[idx(i, j)] += weight;
 				}
 			}
 		}
+		if (octant)
+			mirrorOctant();
 	}
 	
 	/**
-	 * Returns offset weights for biome snapping.
+	 * Returns true if the weights are invariant under the 8 rotations/reflections of the chunk grid, i.e. if the
+	 * domain is a square centered at the origin and the density only depends on the distance to the origin.
 	 */
-	protected static HashMap<Integer, Integer> getOffsetWeights() {
-		HashMap<Integer, Integer> offsetWeights = new HashMap<Integer, Integer>();
+	protected boolean hasOctantSymmetry() {
+		return divineContext == null && x0 == -x1 && z0 == -z1 && x0 == z0;
+	}
+	
+	/**
+	 * Copies the weights in the octant 0 <= i <= j to the rest of the domain.
+	 */
+	private void mirrorOctant() {
+		for (int i = x0; i <= x1; i++) {
+			int a = Math.abs(i);
+			for (int j = z0; j <= z1; j++) {
+				int b = Math.abs(j);
+				weights[idx(i, j)] = a <= b ? weights[idx(a, b)] : weights[idx(b, a)];
+			}
+		}
+	}
+	
+	/**
+	 * Returns the offset weights for biome snapping, where the weight of offset k (in chunks) is at index
+	 * k + StrongholdConstants.snappingRadius.
+	 */
+	protected static int[] getOffsetKernel() {
+		int[] kernel = new int[2 * StrongholdConstants.snappingRadius + 1];
 		for (int i = -26; i <= 30; i++) {
 			int chunkOffset = i >> 2;
-			offsetWeights.put(-chunkOffset, offsetWeights.getOrDefault(-chunkOffset, 0) + 1);
+			kernel[-chunkOffset + StrongholdConstants.snappingRadius]++;
 		}
-		return offsetWeights;
+		return kernel;
 	}
 	
 	/**
-	 * Simulates biome snapping to smooth the weights.
+	 * Simulates biome snapping to smooth the weights. The snapping offsets in x and z are independent, so the
+	 * 2D convolution is done as a convolution along x followed by a convolution along z.
+	 * 
+	 * The offset weights are not symmetric (offsets of -7 and 7 chunks have different weights), so the smoothed
+	 * weights are not invariant under reflections in the x or z axis. They are still invariant under swapping x
+	 * and z if the unsmoothed weights are, in which case only the half i <= j is convolved.
 	 */
 	protected void smoothWeights() {
-		HashMap<Integer, Integer> offsetWeights = getOffsetWeights();
-		double offsetWeightSum = 0;
-		for (int k = -StrongholdConstants.snappingRadius; k <= StrongholdConstants.snappingRadius; k++) {
-			int xOffsetWeight = offsetWeights.get(k);
-			for (int l = -StrongholdConstants.snappingRadius; l <= StrongholdConstants.snappingRadius; l++) {
-				int zOffsetWeight = offsetWeights.get(l);
-				offsetWeightSum += xOffsetWeight * zOffsetWeight;
-			}
+		boolean transposeSymmetric = hasOctantSymmetry();
+		int r = StrongholdConstants.snappingRadius;
+		int[] kernel = getOffsetKernel();
+		double kernelSum = 0;
+		for (int w : kernel) {
+			kernelSum += w;
 		}
-		Chunk[] oldChunks = chunks;
+		double offsetWeightSum = kernelSum * kernelSum;
+		double[] oldWeights = weights;
 		int oldSize1d = size1d;
 		int oldX0 = x0;
 		int oldZ0 = z0;
 		setSize((x0 + x1)/2, (z0 + z1)/2, this.radius);
-		chunks = new Chunk[size1d * size1d];
+		weights = new double[size1d * size1d];
+		double[] smoothedX = new double[oldSize1d];
 		for (int i = x0; i <= x1; i++) {
-			for (int j = z0; j <= z1; j++) {
-				int idx = idx(i, j);
-				chunks[idx] = new Chunk(i, j);
-				chunks[idx].weight = 0;
+			int jStart = transposeSymmetric ? Math.max(i, z0) : z0;
+			// Convolve along x, for all z in the old domain that are needed
+			Arrays.fill(smoothedX, 0);
+			for (int k = -r; k <= r; k++) {
+				int oldRow = (i + k - oldX0) * oldSize1d;
+				int w = kernel[k + r];
+				for (int j = jStart - r - oldZ0; j < oldSize1d; j++) {
+					smoothedX[j] += oldWeights[oldRow + j] * w;
+				}
 			}
-		}
-		for (int i = x0; i <= x1; i++) {
-			for (int j = z0; j <= z1; j++) {
+			// Convolve along z
+			for (int j = jStart; j <= z1; j++) {
 				double w = 0;
-				for (int k = -StrongholdConstants.snappingRadius; k <= StrongholdConstants.snappingRadius; k++) {
-					int xOffsetWeight = offsetWeights.get(k);
-					for (int l = -StrongholdConstants.snappingRadius; l <= StrongholdConstants.snappingRadius; l++) {
-						int zOffsetWeight = offsetWeights.get(l);
-						int idx2 = oldSize1d * (j + l - oldZ0) + i + k - oldX0;
-						w += oldChunks[idx2].weight * xOffsetWeight * zOffsetWeight / offsetWeightSum;
-					}
+				for (int l = -r; l <= r; l++) {
+					w += smoothedX[j + l - oldZ0] * kernel[l + r];
 				}
-				chunks[idx(i, j)].weight = w;
+				weights[idx(i, j)] = w / offsetWeightSum;
+				if (transposeSymmetric)
+					weights[idx(j, i)] = w / offsetWeightSum;
 			}
 		}
 	}
@@ -184,9 +228,96 @@ public class Prior implements IPrior {
 		return 1 * (j - z0) + (i - x0) * size1d;
 	}
 	
+	/**
+	 * Returns the weight of the chunk, or 0 if it is outside the domain.
+	 */
+	double weight(int i, int j) {
+		return inBounds(i, j) ? weights[idx(i, j)] : 0;
+	}
+	
 	@Override
 	public Iterable<Chunk> getChunks() {
-		return Arrays.asList(chunks);
+		return new AbstractList<Chunk>() {
+			@Override
+			public Chunk get(int i) {
+				return new Chunk(x0 + i / size1d, z0 + i % size1d, weights[i]);
+			}
+
+			@Override
+			public int size() {
+				return weights.length;
+			}
+		};
+	}
+	
+	/**
+	 * Checks that the world prior, which is calculated from one octant and smoothed with two 1D convolutions,
+	 * is the same (up to rounding) as the prior calculated for every chunk and smoothed with a 2D convolution.
+	 *
+	 * Usage: Prior --check
+	 */
+	public static void main(String[] args) {
+		if (args.length != 1 || !args[0].equals("--check")) {
+			System.out.println("Usage: Prior --check");
+			return;
+		}
+		Prior prior = new Prior();
+		Prior bruteForce = new BruteForcePrior();
+		double largestWeight = 0;
+		double largestDifference = 0;
+		for (int i = 0; i < bruteForce.weights.length; i++) {
+			largestWeight = Math.max(largestWeight, bruteForce.weights[i]);
+			largestDifference = Math.max(largestDifference, Math.abs(prior.weights[i] - bruteForce.weights[i]));
+		}
+		boolean identical = prior.weights.length == bruteForce.weights.length && largestDifference <= CHECK_TOLERANCE * largestWeight;
+		System.out.println("Largest difference: " + largestDifference + " (largest weight: " + largestWeight + ")");
+		System.out.println(identical ? "The world prior matches the brute force prior." : "The world prior differs from the brute force prior.");
+		System.exit(identical ? 0 : 1);
+	}
+	
+	/**
+	 * The world prior without the shortcuts: the weights of all chunks are calculated, and biome snapping is
+	 * simulated with a 2D convolution.
+	 */
+	private static class BruteForcePrior extends Prior {
+		
+		BruteForcePrior() {
+			super(null);
+			construct(0, 0, StrongholdConstants.maxChunk);
+		}
+		
+		@Override
+		protected boolean hasOctantSymmetry() {
+			return false;
+		}
+		
+		@Override
+		protected void smoothWeights() {
+			int r = StrongholdConstants.snappingRadius;
+			int[] kernel = getOffsetKernel();
+			double kernelSum = 0;
+			for (int w : kernel) {
+				kernelSum += w;
+			}
+			double[] oldWeights = weights;
+			int oldSize1d = size1d;
+			int oldX0 = x0;
+			int oldZ0 = z0;
+			setSize((x0 + x1)/2, (z0 + z1)/2, this.radius);
+			weights = new double[size1d * size1d];
+			for (int i = x0; i <= x1; i++) {
+				for (int j = z0; j <= z1; j++) {
+					double w = 0;
+					for (int k = -r; k <= r; k++) {
+						for (int l = -r; l <= r; l++) {
+							w += oldWeights[(i + k - oldX0) * oldSize1d + (j + l - oldZ0)] * kernel[k + r] * kernel[l + r];
+						}
+					}
+					weights[(i - x0) * size1d + (j - z0)] = w / (kernelSum * kernelSum);
+				}
+			}
+		}
+		
 	}
 	
 }
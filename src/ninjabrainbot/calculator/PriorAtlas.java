@@ -0,0 +1,150 @@
+package ninjabrainbot.calculator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import ninjabrainbot.util.MappedResource;
+
+/**
+ * The exact world prior (Prior without a divine context, including biome snapping) close to the origin, stored
+ * as a float32 raster. Building the exact prior takes around a second, so it is generated offline with
+ * main(...), shipped as a resource and memory mapped when it is first used. Looking up a chunk is as cheap as
+ * evaluating ApproximatedDensity.density(...).
+ *
+ * The atlas covers the chunks with |x|, |z| <= RADIUS, which contains the two inner rings, where most
+ * strongholds are found. Storing all 8 rings would take 18.7 MB. The prior is symmetric under swapping x and
+ * z, so only the chunks with x <= z are stored. The prior is in chunk coordinates, so it does not depend on
+ * where the stronghold is in its chunk.
+ */
+public class PriorAtlas {
+
+	public static final String RESOURCE = "/resources/prior_atlas.bin";
+
+	private static final int MAGIC = 0x4e425041; // "NBPA"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 7 * Integer.BYTES;
+
+	private static final int RADIUS = 384;
+	private static final int SIZE_1D = 2 * RADIUS + 1;
+
+	private final FloatBuffer raster;
+
+	/**
+	 * The atlas is mapped when the holder class is first used, see ApproximatedDensity.CoarseTables.
+	 */
+	private static class Holder {
+		static final PriorAtlas instance = load();
+	}
+
+	private PriorAtlas(ByteBuffer buffer) {
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+			throw new IllegalArgumentException("Unsupported prior atlas.");
+		if (buffer.getInt(8) != RADIUS)
+			throw new IllegalArgumentException("Prior atlas has the wrong radius.");
+		if (buffer.getInt(12) != StrongholdConstants.maxChunk || buffer.getInt(16) != StrongholdConstants.snappingRadius || buffer.getInt(20) != StrongholdConstants.distParam || buffer.getInt(24) != StrongholdConstants.numRings)
+			throw new IllegalArgumentException("Prior atlas was generated for different stronghold constants.");
+		if (buffer.capacity() != HEADER_SIZE + length() * Float.BYTES)
+			throw new IllegalArgumentException("Prior atlas has the wrong size.");
+		buffer.position(HEADER_SIZE);
+		raster = buffer.slice().asFloatBuffer();
+	}
+
+	/**
+	 * Returns the atlas, or null if it is not available.
+	 */
+	public static PriorAtlas get() {
+		return Holder.instance;
+	}
+
+	private static PriorAtlas load() {
+		try {
+			ByteBuffer buffer = MappedResource.map(RESOURCE);
+			return buffer == null ? null : new PriorAtlas(buffer);
+		} catch (IOException | IllegalArgumentException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private static int length() {
+		return SIZE_1D * (SIZE_1D + 1) / 2;
+	}
+
+	/**
+	 * Returns true if the chunk is covered by the atlas.
+	 */
+	public boolean contains(int cx, int cz) {
+		return cx >= -RADIUS && cx <= RADIUS && cz >= -RADIUS && cz <= RADIUS;
+	}
+
+	/**
+	 * Returns the prior probability of a chunk that is covered by the atlas.
+	 */
+	public double weight(int cx, int cz) {
+		return cx <= cz ? raster.get(index(cx + RADIUS, cz + RADIUS)) : raster.get(index(cz + RADIUS, cx + RADIUS));
+	}
+
+	/**
+	 * Index of (a, b) in the upper triangle a <= b, stored row by row.
+	 */
+	private static int index(int a, int b) {
+		return a * SIZE_1D - a * (a - 1) / 2 + (b - a);
+	}
+
+	/**
+	 * Generates the atlas, or checks that the shipped atlas is identical to the calculated one.
+	 *
+	 * Usage: PriorAtlas output_file | --check
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("Usage: PriorAtlas output_file | --check");
+			return;
+		}
+		float[] values = calculate();
+		if (args[0].equals("--check")) {
+			PriorAtlas atlas = get();
+			if (atlas == null) {
+				System.out.println("The resource " + RESOURCE + " is missing or invalid.");
+				System.exit(1);
+			}
+			float[] shipped = new float[length()];
+			atlas.raster.duplicate().get(shipped);
+			boolean identical = Arrays.equals(values, shipped);
+			System.out.println(identical ? "The shipped atlas is up to date." : "The shipped atlas differs from the calculated one.");
+			System.exit(identical ? 0 : 1);
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(args[0])))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(RADIUS);
+			out.writeInt(StrongholdConstants.maxChunk);
+			out.writeInt(StrongholdConstants.snappingRadius);
+			out.writeInt(StrongholdConstants.distParam);
+			out.writeInt(StrongholdConstants.numRings);
+			for (float value : values) {
+				out.writeFloat(value);
+			}
+		}
+	}
+
+	/**
+	 * Calculates the upper triangle of the raster from the exact prior.
+	 */
+	private static float[] calculate() {
+		Prior prior = new Prior();
+		float[] values = new float[length()];
+		for (int i = -RADIUS; i <= RADIUS; i++) {
+			for (int j = i; j <= RADIUS; j++) {
+				values[index(i + RADIUS, j + RADIUS)] = (float) prior.weight(i, j);
+			}
+		}
+		return values;
+	}
+
+}
@@ -1,31 +1,54 @@
 package ninjabrainbot.calculator;
 
-import java.util.ArrayList;
-
-import ninjabrainbot.util.Coords;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A prior computed only close to a ray.
  */
 public class RayApproximatedPrior implements IPrior {
 
-	ArrayList<Chunk> chunks;
+	// Chunks are stored as parallel arrays, Chunk objects are only created on demand by getChunks()
+	int size;
+	int[] x;
+	int[] z;
+	double[] weight;
 	DivineContext divineContext;
+	private DivineSectorWeights divineWeights;
+	private ApproximatedDensity.Tier densityTier;
+	// Exact prior close to the origin, if available. Otherwise the prior is approximated with the density tier
+	private final PriorAtlas atlas = PriorAtlas.get();
 	
 	public RayApproximatedPrior(IRay r, DivineContext divineContext) {
 		this(r, 1.0 / 180.0 * Math.PI, divineContext); // 1 degree tolerance
 	}
 
 	public RayApproximatedPrior(IRay r, double tolerance, DivineContext divineContext) {
+		this(r, tolerance, divineContext, Collections.emptyList(), ApproximatedDensity.DEFAULT_TIER);
+	}
+
+	/**
+	 * Creates a prior that only contains the chunks close to the ray that are also inside all of the given
+	 * cones, where the stronghold density is looked up with the given tier.
+	 */
+	RayApproximatedPrior(IRay r, double tolerance, DivineContext divineContext, List<Cone> cones, ApproximatedDensity.Tier densityTier) {
 		long t0 = System.currentTimeMillis();
 		this.divineContext = divineContext;
-		construct(r, tolerance);
+		this.densityTier = densityTier;
+		if (divineContext != null)
+			divineWeights = DivineSectorWeights.get(divineContext);
+		construct(r, tolerance, cones);
 		System.out.println("Time to construct prior: " + (System.currentTimeMillis() - t0)/1000f + " seconds.");
 	}
 	
-	private void construct(IRay r, double tolerance) {
+	private void construct(IRay r, double tolerance, List<Cone> cones) {
 		double range = 5000.0 / 16;
-		chunks = new ArrayList<Chunk>();
+		size = 0;
+		x = new int[1024];
+		z = new int[1024];
+		weight = new double[1024];
 		double phi = r.alpha() / 180.0 * Math.PI;
 		// direction vector
 		double dx = -Math.sin(phi);
@@ -46,43 +69,66 @@ public class RayApproximatedPrior implements IPrior {
 		double vk = majorX ? vz / vx : vx / vz;
 		boolean rightPositive = majorPositive ? vk - uk > 0 : uk - vk > 0;
 		int i = (int) (majorPositive ? Math.ceil(iter_start_major) : Math.floor(iter_start_major));
+		double[] interval = new double[2];
 		while ((majorX ? (i - iter_start_major) / dx : (i - iter_start_major) / dz) < range) {
 		//while (i - iter_start_major < range) {
 			double minor_u = origin_minor + uk * (i - origin_major);
 			double minor_v = origin_minor + vk * (i - origin_major);
+			// Only the part of the line that is inside all cones
+			interval[0] = Double.NEGATIVE_INFINITY;
+			interval[1] = Double.POSITIVE_INFINITY;
+			for (Cone cone : cones) {
+				cone.clip(i, majorX, interval);
+			}
+			if (interval[0] > interval[1]) {
+				i += majorPositive ? 1 : -1;
+				continue;
+			}
+			if (rightPositive) {
+				minor_u = Math.max(minor_u, interval[0]);
+				minor_v = Math.min(minor_v, Math.nextUp(interval[1]));
+			} else {
+				minor_u = Math.min(minor_u, interval[1]);
+				minor_v = Math.max(minor_v, Math.nextDown(interval[0]));
+			}
 			int j = (int) (rightPositive ? Math.ceil(minor_u) : Math.floor(minor_u));
 			if (j < -StrongholdConstants.maxChunk)
 				j = -StrongholdConstants.maxChunk;
 			if (j > StrongholdConstants.maxChunk)
 				j = StrongholdConstants.maxChunk;
 			while (rightPositive ? j < minor_v : j > minor_v && j <= StrongholdConstants.maxChunk && j >= -StrongholdConstants.maxChunk) {
-				Chunk chunk = majorX ? new Chunk(i, j) : new Chunk(j, i);
-				chunk.weight = strongholdDensity(chunk.x, chunk.z);
-				chunks.add(chunk);
+				if (majorX) {
+					add(i, j);
+				} else {
+					add(j, i);
+				}
 				j += rightPositive ? 1 : -1;
 			}
 			i += majorPositive ? 1 : -1;
 		}
 	}
 	
-	protected double strongholdDensity(double cx, double cz) {
-		double d2 = cx * cx + cz * cz;
+	private void add(int cx, int cz) {
+		if (size == x.length) {
+			int capacity = 2 * size;
+			x = Arrays.copyOf(x, capacity);
+			z = Arrays.copyOf(z, capacity);
+			weight = Arrays.copyOf(weight, capacity);
+		}
+		x[size] = cx;
+		z[size] = cz;
+		weight[size] = strongholdDensity(cx, cz);
+		size++;
+	}
+	
+	protected double strongholdDensity(int cx, int cz) {
 		double relativeWeight = 1.0;
 		if (divineContext != null) {
-			double chunkR = Math.sqrt(d2);
-			if (chunkR <= Ring.get(0).outerRadiusPostSnapping) {
-				double phi = Coords.getPhi(cx, cz);
-				relativeWeight = -divineContext.angleOffsetFromSector(phi) / (StrongholdConstants.snappingRadius * 1.5 / chunkR); // 1.5 ~ sqrt(2) + a small margin
-				relativeWeight = (1.0 + relativeWeight) * 0.5;
-				// clamp
-				if (relativeWeight > 1)
-					relativeWeight = 1;
-				if (relativeWeight < 0)
-					relativeWeight = 0;
-				relativeWeight *= divineContext.relativeDensity();
-			}
+			double chunkR = Math.sqrt(cx * cx + cz * cz);
+			if (chunkR <= Ring.get(0).outerRadiusPostSnapping)
+				relativeWeight = divineWeights.weight(cx, cz);
 		}
-		return relativeWeight * ApproximatedDensity.density(cx, cz);
+		return relativeWeight * (atlas != null && atlas.contains(cx, cz) ? atlas.weight(cx, cz) : densityTier.density(cx, cz));
 	}
 	
 	/**
@@ -154,7 +200,17 @@ public class RayApproximatedPrior implements IPrior {
 
 	@Override
 	public Iterable<Chunk> getChunks() {
-		return chunks;
+		return new AbstractList<Chunk>() {
+			@Override
+			public Chunk get(int i) {
+				return new Chunk(x[i], z[i], weight[i]);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
 	}
 
 }
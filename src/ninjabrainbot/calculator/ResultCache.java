@@ -0,0 +1,129 @@
+package ninjabrainbot.calculator;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded least recently used cache of triangulation results, so that going back to a state that has
+ * already been calculated (undo, toggling the STD of a throw twice, changing an angle back) does not
+ * require triangulating again. Results are keyed by a fingerprint of everything that the posterior depends
+ * on, and are stored without a player position since that can be applied afterwards.
+ */
+class ResultCache {
+
+	// Angles are rounded to this many degrees, so that adding and removing a correction gives the same key
+	private static final double ANGLE_RESOLUTION = 1e-9;
+
+	private final Map<Key, CalculatorResult> results;
+	private long hits, misses;
+
+	ResultCache(int capacity) {
+		results = new LinkedHashMap<Key, CalculatorResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 6029385019285347510L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, CalculatorResult> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached result, or null if there is none.
+	 */
+	synchronized CalculatorResult get(Key key) {
+		CalculatorResult result = results.get(key);
+		if (result != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return result;
+	}
+
+	/**
+	 * Removes and returns the cached result, or null if there is none.
+	 */
+	synchronized CalculatorResult remove(Key key) {
+		CalculatorResult result = results.remove(key);
+		if (result != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if there is a cached result, without counting it as a hit or miss.
+	 */
+	synchronized boolean contains(Key key) {
+		return results.containsKey(key);
+	}
+
+	synchronized void put(Key key, CalculatorResult result) {
+		results.put(key, result);
+	}
+
+	synchronized void clear() {
+		results.clear();
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Canonical fingerprint of the input of a triangulation: the throws, the divine context, the minecraft
+	 * version and the calculator settings.
+	 */
+	static class Key {
+
+		private final long[] fingerprint;
+		private final int hash;
+
+		Key(List<IThrow> eyeThrows, DivineContext divineContext, StdSettings stds, double pruningEpsilon, ApproximatedDensity.Tier densityTier, boolean useAdvStatistics, int strongholdChunkCoord) {
+			long[] f = new long[9 + 4 * eyeThrows.size()];
+			int n = 0;
+			f[n++] = divineContext == null ? -1 : divineContext.fossil.x;
+			f[n++] = strongholdChunkCoord;
+			f[n++] = useAdvStatistics ? 1 : 0;
+			f[n++] = Double.doubleToLongBits(stds.sigma);
+			f[n++] = Double.doubleToLongBits(stds.sigmaAlt);
+			f[n++] = Double.doubleToLongBits(stds.sigmaManual);
+			f[n++] = Double.doubleToLongBits(pruningEpsilon);
+			f[n++] = densityTier.ordinal();
+			f[n++] = eyeThrows.size();
+			// The posterior only depends on the position, angle and standard deviation of each throw, so that is
+			// all a throw is keyed on (the standard deviation of an offset throw depends on its measurement)
+			for (IThrow t : eyeThrows) {
+				f[n++] = Double.doubleToLongBits(t.x());
+				f[n++] = Double.doubleToLongBits(t.z());
+				f[n++] = Math.round(t.alpha() / ANGLE_RESOLUTION);
+				f[n++] = Double.doubleToLongBits(t.getStd(stds));
+			}
+			fingerprint = f;
+			hash = Arrays.hashCode(fingerprint);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			return Arrays.equals(fingerprint, ((Key) obj).fingerprint);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+	}
+
+}
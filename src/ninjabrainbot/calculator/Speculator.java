@@ -0,0 +1,79 @@
+package ninjabrainbot.calculator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ninjabrainbot.Main;
+
+/**
+ * Precomputes the results that are likely to be requested next while the calculator is idle: the last throw
+ * with its angle corrected by a few steps in either direction, and with its standard deviation toggled. The
+ * corresponding hotkey presses then only have to look up the result (see Calculator.precompute(...)).
+ *
+ * The calculations run on the calculator thread between requests, and are spaced out so that they use at
+ * most the CPU budget set in the preferences. They only use the calculator thread, not the other cores, and
+ * stop as soon as a request is submitted, so that the request does not have to wait for them.
+ */
+public class Speculator {
+
+	// Same as the angle change of the hotkeys
+	private static final double CORRECTION_STEP = 0.01f;
+	private static final int MAX_CORRECTION_STEPS = 2;
+
+	private final Calculator calculator;
+	private final CalculatorExecutor executor;
+
+	public Speculator(Calculator calculator, CalculatorExecutor executor) {
+		this.calculator = calculator;
+		this.executor = executor;
+	}
+
+	/**
+	 * Starts precomputing the neighbours of the given throws, should be called after their result has been
+	 * published. Does nothing if speculative precomputation is disabled.
+	 */
+	public void speculate(List<IThrow> eyeThrows, DivineContext divineContext) {
+		if (!Main.preferences.speculativePrecomputation.get() || eyeThrows.isEmpty())
+			return;
+		schedule(getNeighbours(eyeThrows), divineContext, 0, 0);
+	}
+
+	private void schedule(List<List<IThrow>> neighbours, DivineContext divineContext, int i, long delayMillis) {
+		if (i >= neighbours.size())
+			return;
+		executor.submitIdle(superseded -> {
+			long t0 = System.nanoTime();
+			if (!calculator.precompute(neighbours.get(i), divineContext, superseded))
+				return;
+			double elapsedMillis = (System.nanoTime() - t0) / 1e6;
+			// Wait long enough that the calculations take up at most the budgeted fraction of the time
+			double budget = Main.preferences.speculationCpuBudget.get() / 100.0;
+			schedule(neighbours, divineContext, i + 1, (long) Math.ceil(elapsedMillis * (1 - budget) / budget));
+		}, delayMillis);
+	}
+
+	/**
+	 * Returns the throw lists that differ from the given one by a hotkey press on the last throw, in the order
+	 * they are most likely to be requested.
+	 */
+	private static List<List<IThrow>> getNeighbours(List<IThrow> eyeThrows) {
+		IThrow last = eyeThrows.get(eyeThrows.size() - 1);
+		List<List<IThrow>> neighbours = new ArrayList<List<IThrow>>();
+		// Hotkey presses in quick succession are applied as one correction by the sum of their steps (see
+		// GUI.applyPendingLastThrowChange()), so the corrections are added the same way
+		for (int step = 1; step <= MAX_CORRECTION_STEPS; step++) {
+			neighbours.add(withLast(eyeThrows, last.withAddedCorrection(step * CORRECTION_STEP)));
+			neighbours.add(withLast(eyeThrows, last.withAddedCorrection(-step * CORRECTION_STEP)));
+			if (step == 1 && Main.preferences.useAltStd.get())
+				neighbours.add(withLast(eyeThrows, last.withToggledSTD()));
+		}
+		return neighbours;
+	}
+
+	private static List<IThrow> withLast(List<IThrow> eyeThrows, IThrow last) {
+		List<IThrow> list = new ArrayList<IThrow>(eyeThrows);
+		list.set(list.size() - 1, last);
+		return list;
+	}
+
+}
@@ -1,5 +1,7 @@
 package ninjabrainbot.calculator;
 
+import java.util.Objects;
+
 public class StdSettings {
     double sigma;
     double sigmaAlt;
@@ -12,4 +14,21 @@ public class StdSettings {
         this.sigmaManual = sigmaManual;
     }
 
+    StdSettings copy() {
+        return new StdSettings(sigma, sigmaAlt, sigmaManual);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof StdSettings))
+            return false;
+        StdSettings other = (StdSettings) obj;
+        return sigma == other.sigma && sigmaAlt == other.sigmaAlt && sigmaManual == other.sigmaManual;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(sigma, sigmaAlt, sigmaManual);
+    }
+
 }
\ No newline at end of file
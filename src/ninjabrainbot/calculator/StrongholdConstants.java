@@ -10,7 +10,7 @@ public class StrongholdConstants {
 	public static final int numRings = 8;
 	public static final int maxChunk = (int) (distParam * ((4 + (numRings - 1) * 6) + 0.5f*2.5f) + 2 * snappingRadius + 1);
 	
-	private static int strongholdCenterChunkCoord;
+	private static volatile int strongholdCenterChunkCoord;
 	
 	/**
 	 * Returns the maximum distance the stronghold can be from the given position (in blocks).
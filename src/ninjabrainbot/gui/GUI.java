@@ -59,15 +59,26 @@ public class GUI {
 	private final long minOverlayUpdateDelayMillis = 1000;
 	public Timer autoResetTimer;
 	private static final int AUTO_RESET_DELAY = 15 * 60 * 1000;
+	// Angle and STD changes of the last throw are accumulated and applied at most once per
+	// LAST_THROW_CHANGE_INTERVAL, so that key repeats of a held hotkey do not queue up one update each
+	private Timer lastThrowChangeTimer;
+	private IThrow pendingChangeThrow;
+	private double pendingAngleChange;
+	private boolean pendingSTDToggle;
+	private static final int LAST_THROW_CHANGE_INTERVAL = 16;
 
 	public static final int MAX_THROWS = 10;
 	private final Calculator calculator;
+	private final CalculatorExecutor calculatorExecutor;
+	private final Speculator speculator;
 	private ArrayList<IThrow> eyeThrows;
 	private ArrayList<IThrow> eyeThrowsLast;
 	private IThrow playerPos;
 	private IThrow playerPosLast;
 	private DivineContext divineContext;
 	private DivineContext divineContextLast;
+	// Result of the last triangulation, null if the last update did not triangulate or is still being calculated
+	private CalculatorResult lastResult;
 
 	private boolean targetLocked = false;
 
@@ -83,6 +94,8 @@ public class GUI {
 		Locale.setDefault(Locale.US);
 		themedComponents = new ArrayList<>();
 		calculator = new Calculator();
+		calculatorExecutor = new CalculatorExecutor(SwingUtilities::invokeLater);
+		speculator = new Speculator(calculator, calculatorExecutor);
 		eyeThrows = new ArrayList<>();
 		eyeThrowsLast = new ArrayList<>();
 
@@ -144,6 +157,13 @@ public class GUI {
 			autoResetTimer.restart();
 			autoResetTimer.stop();
 		});
+		lastThrowChangeTimer = new Timer(LAST_THROW_CHANGE_INTERVAL, p -> {
+			if (pendingChangeThrow == null) {
+				lastThrowChangeTimer.stop();
+				return;
+			}
+			applyPendingLastThrowChange();
+		});
 		overlayHideTimer = new Timer((int) (Main.preferences.overlayHideDelay.get() * 1000f), p -> {
 			clearOBSOverlay();
 		});
@@ -343,12 +363,15 @@ public class GUI {
 					if (i > 0) {
 						updateWithNewPlayerPos(t);
 					} else {
-						BlindResult result = calculator.blind(t.toBlind(), divineContext, true);
-						mainTextArea.setResult(result, this);
-						if (Main.preferences.autoReset.get()) {
-							autoResetTimer.restart();
-						}
-						SwingUtilities.invokeLater(() -> updateOBSOverlay());
+						final DivineContext divineContext = this.divineContext;
+						lastResult = null;
+						calculatorExecutor.submit(() -> calculator.blind(t.toBlind(), divineContext, true), result -> {
+							mainTextArea.setResult(result, this);
+							if (Main.preferences.autoReset.get()) {
+								autoResetTimer.restart();
+							}
+							SwingUtilities.invokeLater(() -> updateOBSOverlay());
+						});
 					}
 					return;
 				}
@@ -403,22 +426,15 @@ public class GUI {
 	private void updateWithNewPlayerPos(IThrow updateThrow) {
 		saveThrowsForUndo();
 		playerPos = updateThrow;
-		onThrowsUpdated();
+		onPlayerPosUpdated();
 	}
 
 	public void changeLastAngle(double delta) {
 		if (!calibrationPanel.isCalibrating()) {
-			int i = eyeThrows.size() - 1;
-			if (i == -1) {
-				return;
+			if (queueLastThrowChange()) {
+				pendingAngleChange += delta;
+				onLastThrowChangeQueued();
 			}
-			IThrow last = eyeThrows.get(i);
-			IThrow t = last.withAddedCorrection(delta);
-			saveThrowsForUndo();
-			eyeThrows.remove(last);
-			eyeThrows.add(t);
-			enderEyePanel.setThrow(i, t);
-			onThrowsUpdated();
 		} else {
 			calibrationPanel.changeLastAngle(delta);
 		}
@@ -426,20 +442,63 @@ public class GUI {
 
 	public void toggleLastSTD() {
 		if (!calibrationPanel.isCalibrating()) {
-			int i = eyeThrows.size() - 1;
-			if (i == -1) {
-				return;
+			if (queueLastThrowChange()) {
+				pendingSTDToggle = !pendingSTDToggle;
+				onLastThrowChangeQueued();
 			}
-			IThrow last = eyeThrows.get(i);
-			IThrow t = last.withToggledSTD();
-			saveThrowsForUndo();
-			eyeThrows.remove(last);
-			eyeThrows.add(t);
-			enderEyePanel.setThrow(i, t);
-			onThrowsUpdated();
 		}
 	}
 
+	/**
+	 * Returns false if there is no last throw to change. Pending changes are discarded if the last throw has
+	 * been replaced since they were queued.
+	 */
+	private boolean queueLastThrowChange() {
+		if (eyeThrows.isEmpty())
+			return false;
+		IThrow last = eyeThrows.get(eyeThrows.size() - 1);
+		if (pendingChangeThrow != last) {
+			pendingChangeThrow = last;
+			pendingAngleChange = 0;
+			pendingSTDToggle = false;
+		}
+		return true;
+	}
+
+	/**
+	 * Applies the change immediately if no change has been applied in the last LAST_THROW_CHANGE_INTERVAL,
+	 * otherwise lastThrowChangeTimer applies it (along with any changes queued in the meantime).
+	 */
+	private void onLastThrowChangeQueued() {
+		if (!lastThrowChangeTimer.isRunning()) {
+			applyPendingLastThrowChange();
+			lastThrowChangeTimer.restart();
+		}
+	}
+
+	private void applyPendingLastThrowChange() {
+		IThrow last = pendingChangeThrow;
+		double angleChange = pendingAngleChange;
+		boolean toggleSTD = pendingSTDToggle;
+		pendingChangeThrow = null;
+		pendingAngleChange = 0;
+		pendingSTDToggle = false;
+		int i = eyeThrows.size() - 1;
+		if (i == -1 || eyeThrows.get(i) != last || (angleChange == 0 && !toggleSTD)) {
+			return;
+		}
+		IThrow t = last;
+		if (angleChange != 0)
+			t = t.withAddedCorrection(angleChange);
+		if (toggleSTD)
+			t = t.withToggledSTD();
+		saveThrowsForUndo();
+		eyeThrows.remove(last);
+		eyeThrows.add(t);
+		enderEyePanel.setThrow(i, t);
+		onThrowsUpdated();
+	}
+
 	private void setTargetLocked(boolean locked) {
 		targetLocked = locked;
 		frame.setLocked(locked);
@@ -475,22 +534,39 @@ public class GUI {
 			completeEyeThrows.add(t);
 		}
 
+		// The calculation is done on the calculator thread, so it only gets a snapshot of the input
+		final DivineContext divineContext = this.divineContext;
+		final IThrow playerPos = this.playerPos;
+		lastResult = null;
 		if (completeEyeThrows.size() == 0 && divineContext != null) {
-			DivineResult result = calculator.divine(divineContext.fossil);
-			mainTextArea.setResult(result, this);
-			enderEyePanel.setErrors(null);
+			calculatorExecutor.submit(() -> calculator.divine(divineContext.fossil), result -> {
+				mainTextArea.setResult(result, this);
+				enderEyePanel.setErrors(null);
+				onResultPublished();
+			});
 		} else {
-			CalculatorResult result = null;
-			double[] errors = null;
-			if (completeEyeThrows.size() >= 1) {
+			final long timeBudgetMillis = (long) (Main.preferences.triangulationTimeBudget.get() * 1000f);
+			calculatorExecutor.<CalculatorResult>submitProgressive(publishProvisional -> {
+				if (completeEyeThrows.size() == 0)
+					return null;
 				System.out.println(playerPos);
-				result = calculator.triangulate(completeEyeThrows, divineContext, playerPos);
-				if (result.success()) {
+				return calculator.triangulate(completeEyeThrows, divineContext, playerPos, publishProvisional, timeBudgetMillis);
+			}, calculatedResult -> {
+				CalculatorResult result = calculatedResult;
+				// The player may have moved while a provisional result was shown
+				if (result != null && this.playerPos != playerPos)
+					result = result.withPlayerPos(this.playerPos);
+				double[] errors = null;
+				if (result != null && result.success()) {
 					errors = result.getAngleErrors();
 				}
-			}
-			mainTextArea.setResult(result, this);
-			enderEyePanel.setErrors(errors);
+				lastResult = result;
+				mainTextArea.setResult(result, this);
+				enderEyePanel.setErrors(errors);
+				onResultPublished();
+				if (result != null && !result.isProvisional())
+					speculator.speculate(completeEyeThrows, divineContext);
+			});
 		}
 		// Update throw panels
 		enderEyePanel.setThrows(eyeThrows, divineContext);
@@ -500,9 +576,28 @@ public class GUI {
 		}
 		// Update throw STDs
 		enderEyePanel.updateSTDs(calculator.stds);
-		// Update bounds
+		// Bounds and overlay are updated when the result is published, so that they show the new state
+	}
+
+	private void onResultPublished() {
 		updateBounds();
-		// Update overlay
+		SwingUtilities.invokeLater(() -> updateOBSOverlay());
+	}
+
+	/**
+	 * Updates the distances and angles to the stronghold after the player has moved. The throws have not
+	 * changed, so the last result is reused instead of triangulating again.
+	 */
+	private void onPlayerPosUpdated() {
+		if (lastResult == null) {
+			onThrowsUpdated();
+			return;
+		}
+		lastResult = lastResult.withPlayerPos(playerPos);
+		mainTextArea.setResult(lastResult, this);
+		if (Main.preferences.autoReset.get()) {
+			autoResetTimer.restart();
+		}
 		SwingUtilities.invokeLater(() -> updateOBSOverlay());
 	}
 
@@ -56,6 +56,7 @@ public class OptionsFrame extends ThemedFrame {
 	private TextboxPanel sigmaAlt;
 	private HotkeyPanel sigmaAltHotkey;
 	private TextboxPanel overlayResetDelay;
+	private TextboxPanel speculationCpuBudget;
 
 	static int WINDOW_WIDTH = 560;
 	static int COLUMN_WIDTH = WINDOW_WIDTH/2;
@@ -159,6 +160,11 @@ public class OptionsFrame extends ThemedFrame {
 		column2.add(new CheckboxPanel(gui, I18n.get("settings.show_angle_updates"), Main.preferences.showAngleUpdates));
 		column2.add(new CheckboxPanel(gui, I18n.get("settings.use_advanced_stronghold_statistics"), Main.preferences.useAdvStatistics));
 		column2.add(new CheckboxPanel(gui, I18n.get("settings.use_alternative_clipboard_reader"), Main.preferences.altClipboardReader));
+		column2.add(new TextboxPanel(gui, I18n.get("settings.triangulation_time_budget"), Main.preferences.triangulationTimeBudget));
+		column2.add(new CheckboxPanel(gui, I18n.get("settings.speculative_precomputation"), Main.preferences.speculativePrecomputation));
+		speculationCpuBudget = new TextboxPanel(gui, I18n.get("settings.speculation_cpu_budget"), Main.preferences.speculationCpuBudget);
+		speculationCpuBudget.setEnabled(Main.preferences.speculativePrecomputation.get());
+		column2.add(speculationCpuBudget);
 		column2.add(Box.createGlue());
 		return mainPanel;
 	}
@@ -321,6 +327,11 @@ public class OptionsFrame extends ThemedFrame {
 		overlayResetDelay.descLabel.updateColors(gui);
 	}
 
+	public void setSpeculationCpuBudgetEnabled(boolean b) {
+		speculationCpuBudget.setEnabled(b);
+		speculationCpuBudget.descLabel.updateColors(gui);
+	}
+
 }
 
 class CheckboxPanel extends ThemedPanel {
@@ -110,12 +110,12 @@ public class ChunkPanel extends ThemedPanel {
 		} else {
 			location.setText(p.formatLocation());
 			certainty.setText(p.formatCertainty());
-			certainty.setForeground(gui.theme.CERTAINTY_COLOR_MAP.get(p.weight));
+			certainty.setForeground(gui.theme.CERTAINTY_COLOR_MAP.get(p.getWeight()));
 			distance.setText(p.formatDistance());
 			nether.setText(p.formatNether());
 			angle.setText(p.formatTravelAngle(false));
 			angle.setColoredText(p.formatTravelAngleDiff(), p.getTravelAngleDiffColor());
-			lastColor = p.weight;
+			lastColor = p.getWeight();
 		}
 	}
 	
@@ -79,6 +79,13 @@ public class ChunkPanelHeader extends ThemedPanel {
 		location.setText(Main.preferences.strongholdDisplayType.get() == NinjabrainBotPreferences.CHUNK ? I18n.get("chunk") : I18n.get("location"));
 	}
 
+	/**
+	 * Marks the certainties as preliminary.
+	 */
+	public void setProvisional(boolean b) {
+		certainty.setText(b ? I18n.get("certainty_2_provisional") : I18n.get("certainty_2"));
+	}
+
 	public void setAngleUpdatesEnabled(boolean b) {
 		if (b) {
 			add(angle);
@@ -145,6 +145,7 @@ class BasicTriangulationPanel extends ThemedPanel {
 	public ColorMapLabel currentAngleLabel;
 
 	public static final String CERTAINTY_TEXT = I18n.get("certainty");
+	public static final String PROVISIONAL_CERTAINTY_TEXT = I18n.get("certainty_provisional");
 	
 	public BasicTriangulationPanel(GUI gui) {
 		super(gui);
@@ -171,8 +172,8 @@ class BasicTriangulationPanel extends ThemedPanel {
 			if (result.success()) {
 				ChunkPrediction prediction = result.getBestPrediction();
 				maintextLabel.setText(prediction.format());
-				certaintyPanel.setText(CERTAINTY_TEXT);
-				certaintyPanel.setColoredText(String.format(Locale.US, "%.1f%%", prediction.weight*100.0), (float) prediction.weight);
+				certaintyPanel.setText(result.isProvisional() ? PROVISIONAL_CERTAINTY_TEXT : CERTAINTY_TEXT);
+				certaintyPanel.setColoredText(String.format(Locale.US, "%.1f%%", prediction.getWeight() * 100.0), (float) prediction.getWeight());
 				netherLabel.setText(I18n.get("nether_coordinates", prediction.x*2, prediction.z*2, prediction.getDistance()/8));
 				currentAngleLabel.setText(prediction.formatTravelAngle(true));
 				currentAngleLabel.setColoredText(prediction.formatTravelAngleDiff(), prediction.getTravelAngleDiffColor());
@@ -242,6 +243,7 @@ class DetailedTriangulationPanel extends ThemedPanel {
 	
 	public void setResult(CalculatorResult result) {
 		header.updateHeaderText();
+		header.setProvisional(result != null && result.isProvisional());
 		if (result == null) {
 			for (ChunkPanel p : panels) {
 				p.setPrediciton(null);
@@ -251,7 +253,8 @@ class DetailedTriangulationPanel extends ThemedPanel {
 		List<ChunkPrediction> predictions = result.getTopPredictions(SizePreference.NUM_DETAILED_PANELS);
 		for (int i = 0; i < SizePreference.NUM_DETAILED_PANELS; i++) {
 			ChunkPanel p = panels.get(i);
-			p.setPrediciton(predictions.get(i));
+			// Very precise throws can leave fewer chunks than there are panels
+			p.setPrediciton(i < predictions.size() ? predictions.get(i) : null);
 		}
 	}
 
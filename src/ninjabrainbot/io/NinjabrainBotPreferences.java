@@ -30,6 +30,8 @@ public class NinjabrainBotPreferences {
 	public FloatPreference sigmaManual;
 	public FloatPreference crosshairCorrection;
 	public FloatPreference overlayHideDelay;
+	public FloatPreference speculationCpuBudget;
+	public FloatPreference triangulationTimeBudget;
 	public BooleanPreference checkForUpdates;
 	public BooleanPreference translucent;
 	public BooleanPreference alwaysOnTop;
@@ -44,6 +46,7 @@ public class NinjabrainBotPreferences {
 	public BooleanPreference useOverlay;
 	public BooleanPreference overlayAutoHide;
 	public BooleanPreference overlayHideWhenLocked;
+	public BooleanPreference speculativePrecomputation;
 	public MultipleChoicePreference strongholdDisplayType;
 	public MultipleChoicePreference theme;
 	public MultipleChoicePreference size;
@@ -161,6 +164,16 @@ public class NinjabrainBotPreferences {
 				SwingUtilities.invokeLater(() -> gui.onOverlaySettingsChanged());
 			}
 		};
+		speculationCpuBudget = new FloatPreference("speculation_cpu_budget", 25f, 1f, 100f, pref) {
+			@Override
+			public void onChangedByUser(GUI gui) {
+			}
+		};
+		triangulationTimeBudget = new FloatPreference("triangulation_time_budget", 2f, 0.05f, 60f, pref) {
+			@Override
+			public void onChangedByUser(GUI gui) {
+			}
+		};
 		checkForUpdates = new BooleanPreference("check_for_updates", true, pref) {
 			@Override
 			public void onChangedByUser(GUI gui) {
@@ -253,6 +266,12 @@ public class NinjabrainBotPreferences {
 				SwingUtilities.invokeLater(() -> gui.onOverlaySettingsChanged());
 			}
 		};
+		speculativePrecomputation = new BooleanPreference("speculative_precomputation", false, pref) {
+			@Override
+			public void onChangedByUser(GUI gui) {
+				SwingUtilities.invokeLater(() -> gui.optionsFrame.setSpeculationCpuBudgetEnabled(get()));
+			}
+		};
 		strongholdDisplayType = new MultipleChoicePreference("stronghold_display_type", FOURFOUR, new int[] { 0, 1, 2 },
 				new String[] { FOURFOUR, EIGHTEIGHT, CHUNK }, pref) {
 			@Override
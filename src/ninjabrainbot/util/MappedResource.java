@@ -0,0 +1,57 @@
+package ninjabrainbot.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory maps large binary resources (lookup tables), so that they are paged in by the OS as they are used
+ * instead of being read onto the heap.
+ */
+public class MappedResource {
+
+	/**
+	 * Returns the resource mapped read-only, or null if there is no such resource. Resources inside a jar
+	 * cannot be mapped directly, so they are first copied to a temporary file.
+	 */
+	public static ByteBuffer map(String resource) throws IOException {
+		URL url = MappedResource.class.getResource(resource);
+		if (url == null)
+			return null;
+		Path path;
+		if (url.getProtocol().equals("file")) {
+			try {
+				path = Paths.get(url.toURI());
+			} catch (URISyntaxException e) {
+				throw new IOException(e);
+			}
+		} else {
+			String name = Paths.get(resource).getFileName().toString();
+			path = Files.createTempFile(name, null);
+			path.toFile().deleteOnExit();
+			try (InputStream in = url.openStream()) {
+				Files.copy(in, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		return map(path);
+	}
+
+	/**
+	 * Returns the file mapped read-only.
+	 */
+	public static ByteBuffer map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+package ninjabrainbot.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits loops over large arrays into contiguous blocks of indices that are processed in parallel using
+ * fork/join. The blocks have a fixed size and sums are always combined in the same order, so results are
+ * bit-identical regardless of the number of cores (and of whether the loop was run in parallel at all).
+ *
+ * Work that should not compete with other work for cores, such as speculative calculations, can be run with
+ * sequentially(...), which processes the blocks one at a time on the calling thread.
+ */
+public class ParallelRange {
+
+	public static final int BLOCK_SIZE = 4096;
+	// Loops shorter than this are run on the calling thread, since forking is not worth it
+	public static final int PARALLEL_THRESHOLD = 4 * BLOCK_SIZE;
+	// True while the current thread is inside sequentially(...)
+	private static final ThreadLocal<Boolean> sequential = ThreadLocal.withInitial(() -> false);
+
+	public interface RangeAction {
+		void apply(int start, int end);
+	}
+
+	public interface RangeFunction {
+		double apply(int start, int end);
+	}
+
+	/**
+	 * Runs task on the calling thread, with all loops in it run on the calling thread as well.
+	 */
+	public static void sequentially(Runnable task) {
+		if (sequential.get()) {
+			task.run();
+			return;
+		}
+		sequential.set(true);
+		try {
+			task.run();
+		} finally {
+			sequential.set(false);
+		}
+	}
+
+	/**
+	 * Calls action for consecutive ranges that together cover [0, n).
+	 */
+	public static void forEach(int n, RangeAction action) {
+		if (n < PARALLEL_THRESHOLD) {
+			action.apply(0, n);
+			return;
+		}
+		invoke(new BlockTask(n, BLOCK_SIZE, 0, numBlocks(n), action));
+	}
+
+	/**
+	 * Calls action for consecutive ranges of at most blockSize indices that together cover [0, n). Useful
+	 * when every index is expensive to process, so that a smaller block size than BLOCK_SIZE is needed.
+	 */
+	public static void forEach(int n, int blockSize, RangeAction action) {
+		if (n <= blockSize) {
+			action.apply(0, n);
+			return;
+		}
+		invoke(new BlockTask(n, blockSize, 0, (n + blockSize - 1) / blockSize, action));
+	}
+
+	/**
+	 * Returns the sum of sum.apply(start, end) over all blocks of [0, n). The block sums are combined using
+	 * pairwise summation.
+	 */
+	public static double sum(int n, RangeFunction sum) {
+		double[] blockSums = applyToBlocks(n, sum);
+		return pairwiseSum(blockSums, 0, blockSums.length);
+	}
+
+	/**
+	 * Returns the maximum of max.apply(start, end) over all blocks of [0, n), or negative infinity if n is 0.
+	 */
+	public static double max(int n, RangeFunction max) {
+		double result = Double.NEGATIVE_INFINITY;
+		for (double blockMax : applyToBlocks(n, max)) {
+			if (blockMax > result)
+				result = blockMax;
+		}
+		return result;
+	}
+
+	private static double[] applyToBlocks(int n, RangeFunction f) {
+		double[] blockResults = new double[numBlocks(n)];
+		if (n < PARALLEL_THRESHOLD) {
+			for (int b = 0; b < blockResults.length; b++) {
+				blockResults[b] = f.apply(b * BLOCK_SIZE, Math.min(n, (b + 1) * BLOCK_SIZE));
+			}
+		} else {
+			invoke(new BlockTask(n, BLOCK_SIZE, 0, blockResults.length, (start, end) -> {
+				blockResults[start / BLOCK_SIZE] = f.apply(start, end);
+			}));
+		}
+		return blockResults;
+	}
+
+	/**
+	 * Returns the sum of a[start] ... a[end - 1] using Kahan summation.
+	 */
+	public static double kahanSum(double[] a, int start, int end) {
+		double sum = 0;
+		double compensation = 0;
+		for (int i = start; i < end; i++) {
+			double y = a[i] - compensation;
+			double t = sum + y;
+			compensation = (t - sum) - y;
+			sum = t;
+		}
+		return sum;
+	}
+
+	private static double pairwiseSum(double[] a, int start, int end) {
+		if (end - start <= 2) {
+			double sum = 0;
+			for (int i = start; i < end; i++) {
+				sum += a[i];
+			}
+			return sum;
+		}
+		int mid = (start + end) >>> 1;
+		return pairwiseSum(a, start, mid) + pairwiseSum(a, mid, end);
+	}
+
+	/**
+	 * Processes the blocks of the task on the common pool, or one at a time on the calling thread if it is
+	 * inside sequentially(...).
+	 */
+	private static void invoke(BlockTask task) {
+		if (sequential.get()) {
+			for (int b = task.firstBlock; b < task.lastBlock; b++) {
+				task.action.apply(b * task.blockSize, Math.min(task.n, (b + 1) * task.blockSize));
+			}
+			return;
+		}
+		ForkJoinPool.commonPool().invoke(task);
+	}
+
+	private static int numBlocks(int n) {
+		return (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+	}
+
+	private static class BlockTask extends RecursiveAction {
+
+		private static final long serialVersionUID = -1820565542960342370L;
+
+		private final int n;
+		private final int blockSize;
+		private final int firstBlock, lastBlock;
+		private final RangeAction action;
+
+		BlockTask(int n, int blockSize, int firstBlock, int lastBlock, RangeAction action) {
+			this.n = n;
+			this.blockSize = blockSize;
+			this.firstBlock = firstBlock;
+			this.lastBlock = lastBlock;
+			this.action = action;
+		}
+
+		@Override
+		protected void compute() {
+			if (lastBlock - firstBlock <= 1) {
+				if (lastBlock > firstBlock)
+					action.apply(firstBlock * blockSize, Math.min(n, lastBlock * blockSize));
+				return;
+			}
+			int mid = (firstBlock + lastBlock) >>> 1;
+			invokeAll(new BlockTask(n, blockSize, firstBlock, mid, action), new BlockTask(n, blockSize, mid, lastBlock, action));
+		}
+
+	}
+
+}
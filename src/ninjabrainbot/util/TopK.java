@@ -0,0 +1,154 @@
+package ninjabrainbot.util;
+
+/**
+ * Partial ordering of index arrays by the values they refer to, using quickselect with three-way
+ * partitioning. This is O(n) on average, instead of O(n log n) for sorting the whole array when only the
+ * largest (or smallest) values are needed.
+ */
+public class TopK {
+
+	// Ranges shorter than this are insertion sorted
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	/**
+	 * Returns the indices 0, 1, ..., n - 1.
+	 */
+	public static int[] range(int n) {
+		int[] indices = new int[n];
+		for (int i = 0; i < n; i++) {
+			indices[i] = i;
+		}
+		return indices;
+	}
+
+	/**
+	 * Rearranges indices so that the first k refer to the k largest values, in descending order. The order of
+	 * the remaining indices is unspecified.
+	 */
+	public static void select(int[] indices, double[] values, int k) {
+		k = Math.min(k, indices.length);
+		if (k <= 0)
+			return;
+		int lo = 0;
+		int hi = indices.length - 1;
+		while (hi - lo > INSERTION_SORT_THRESHOLD) {
+			long bounds = partition(indices, values, lo, hi);
+			int gtEnd = (int) (bounds >> 32);
+			int ltStart = (int) bounds;
+			if (k <= gtEnd) {
+				hi = gtEnd - 1;
+			} else if (k > ltStart) {
+				lo = ltStart;
+			} else {
+				break;
+			}
+		}
+		if (hi - lo <= INSERTION_SORT_THRESHOLD)
+			insertionSort(indices, values, lo, hi);
+		sort(indices, values, 0, k - 1);
+	}
+
+	/**
+	 * Rearranges indices so that the indices after the returned count refer to the smallest values, which sum
+	 * to less than maxTailMass. As many values as possible are put in the tail, but at least minCount are
+	 * kept. The order of the kept indices is unspecified.
+	 */
+	public static int selectByTailMass(int[] indices, double[] values, double maxTailMass, int minCount) {
+		int lo = 0;
+		int hi = indices.length - 1;
+		double tailMass = 0;
+		// Invariant: indices after hi are in the tail, indices before lo are kept
+		while (hi - lo > INSERTION_SORT_THRESHOLD) {
+			long bounds = partition(indices, values, lo, hi);
+			int gtEnd = (int) (bounds >> 32);
+			int ltStart = (int) bounds;
+			double ltMass = 0;
+			for (int i = ltStart; i <= hi; i++) {
+				ltMass += values[indices[i]];
+			}
+			if (tailMass + ltMass >= maxTailMass || ltStart < minCount) {
+				lo = ltStart;
+				continue;
+			}
+			tailMass += ltMass;
+			hi = ltStart - 1;
+			// Values equal to the pivot
+			double pivot = values[indices[gtEnd]];
+			while (hi >= gtEnd && hi >= minCount && tailMass + pivot < maxTailMass) {
+				tailMass += pivot;
+				hi--;
+			}
+			if (hi >= gtEnd)
+				return hi + 1;
+			hi = gtEnd - 1;
+		}
+		insertionSort(indices, values, lo, hi);
+		while (hi >= lo && hi >= minCount && tailMass + values[indices[hi]] < maxTailMass) {
+			tailMass += values[indices[hi]];
+			hi--;
+		}
+		return hi + 1;
+	}
+
+	/**
+	 * Sorts indices[lo..hi] (inclusive) by descending value.
+	 */
+	public static void sort(int[] indices, double[] values, int lo, int hi) {
+		while (hi - lo > INSERTION_SORT_THRESHOLD) {
+			long bounds = partition(indices, values, lo, hi);
+			int gtEnd = (int) (bounds >> 32);
+			int ltStart = (int) bounds;
+			// Recurse into the smaller part to bound the stack depth
+			if (gtEnd - lo < hi - ltStart) {
+				sort(indices, values, lo, gtEnd - 1);
+				lo = ltStart;
+			} else {
+				sort(indices, values, ltStart, hi);
+				hi = gtEnd - 1;
+			}
+		}
+		insertionSort(indices, values, lo, hi);
+	}
+
+	/**
+	 * Partitions indices[lo..hi] into values greater than, equal to and less than the median of three values.
+	 * Returns the start of the equal part in the upper 32 bits and the start of the less than part in the lower
+	 * 32 bits.
+	 */
+	private static long partition(int[] indices, double[] values, int lo, int hi) {
+		int mid = (lo + hi) >>> 1;
+		double a = values[indices[lo]];
+		double b = values[indices[mid]];
+		double c = values[indices[hi]];
+		double pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+		int gtEnd = lo;
+		int i = lo;
+		int ltStart = hi + 1;
+		while (i < ltStart) {
+			double v = values[indices[i]];
+			if (v > pivot) {
+				swap(indices, i++, gtEnd++);
+			} else if (v < pivot) {
+				swap(indices, i, --ltStart);
+			} else {
+				i++;
+			}
+		}
+		return ((long) gtEnd << 32) | ltStart;
+	}
+
+	private static void insertionSort(int[] indices, double[] values, int lo, int hi) {
+		for (int i = lo + 1; i <= hi; i++) {
+			for (int j = i; j > lo && values[indices[j]] > values[indices[j - 1]]; j--) {
+				swap(indices, j, j - 1);
+			}
+		}
+	}
+
+	private static void swap(int[] a, int i, int j) {
+		int t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+
+}